@@ -1,5 +1,5 @@
 # -------------------------------------------------------------------
-# QuizBox Base Version 5f
+# QuizBox Base Version 5g
 # 12/08/2012
 # Ted Meyers
 # -------------------------------------------------------------------
@@ -9,12 +9,15 @@
 # -------------------------------------------------------------------
 # 2/1/13 ver 5f -   added quiet mode (only a mode on base unit)
 #                   fixed baud rate display
+# 3/9/13 ver 5g -   added rst and brt, which pass on the remote ms tick
+#                   in the + and # messages (sent by remote ver 5d);
+#                   rs and br are unchanged, for remotes before 5d
 # -------------------------------------------------------------------
 #
 from synapse.switchboard import *
 from synapse.platforms import *
 
-VER = "5f"
+VER = "5g"
 HEX = "0123456789ABCDEF"
 NET_ID = 3
 CHANNEL_ID = 4
@@ -142,12 +145,25 @@ def rs(data, lq):
     if data==0: data="00"
     if curMode!=MODE_QUIET: print "(+", addr, data, lq, ')',
 
+# Remote LQ Status, tick is the remote ms clock as 4 hex digits
+def rst(data, lq, tick):
+    addr=rpcSourceAddr()
+    if data==0: data="00"
+    if curMode!=MODE_QUIET: print "(+", addr, data, lq, tick, ')',
+
 # Button selected Return requested
 def br(data, lq):
     addr=rpcSourceAddr()
     rpc(addr, 'us', data)
     if data==0: data="00"
     print "(#", addr, data, lq, ')',
+
+# Button selected Return requested, tick is when the button was pressed
+def brt(data, lq, tick):
+    addr=rpcSourceAddr()
+    rpc(addr, 'us', data)
+    if data==0: data="00"
+    print "(#", addr, data, lq, tick, ')',
     
 # Return link Quality
 def rq(base, data):
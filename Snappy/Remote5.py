@@ -1,5 +1,5 @@
 # -------------------------------------------------------------------
-# QuizBox Remote Version 5c
+# QuizBox Remote Version 5d
 # 12/08/2012
 # Ted Meyers
 # -------------------------------------------------------------------
@@ -9,6 +9,8 @@
 # -------------------------------------------------------------------
 # 2/1/13 ver 5c -   added version info
 #                   added status request/response
+# 3/9/13 ver 5d -   sends brt and rst (br and rs plus the remote ms tick),
+#                   so the PC can tell which press came first; needs base 5g
 # -------------------------------------------------------------------
 #
 from synapse.switchboard import *
@@ -18,7 +20,7 @@ from synapse.platforms import *
 #    "\x5D\x24\x50" # Address of the PCs USB-attached node
 #    "\x00\x00\x01" # Portal address
 
-VER = "5c"
+VER = "5d"
 HEX = "0123456789ABCDEF"
 NET_ID = 3
 CHANNEL_ID = 4
@@ -50,6 +52,7 @@ curSelected = NONE
 curMode = MODE_STARTUP
 powerLEDon = False
 isUpdateSelect = False
+pressTick = "0000"          # ms tick of the last press, as 4 hex digits
 
 timeOutTicks = 0
 timeOutTicksStart = 500     # 10 msec periods before radio times out
@@ -294,6 +297,10 @@ def _updateBaseNodeAddrX():
     global baseNodeAddrX
     baseNodeAddrX = _getHexAddr(baseNodeAddr)
 
+def _getHexTick(ms):
+    """The 16 bit ms tick as 4 hex digits (binary could look like the end of a message)"""
+    return HEX[(ms>>12)&15] + HEX[(ms>>8)&15] + HEX[(ms>>4)&15] + HEX[ms&15]
+
 def _getHexAddr(addr):
     a0 = ord(addr[0])
     a1 = ord(addr[1])
@@ -310,7 +317,10 @@ def _buttonEvent(pinNum, isSet):
     global updateTicks
     global curSelected
     global isUpdateSelect
+    global pressTick
     
+    # Read the time first, before anything else delays it
+    tick = _getHexTick(getMs())
     if curMode==MODE_STARTUP:
         # Disallow button presses on startup
         return
@@ -333,22 +343,23 @@ def _buttonEvent(pinNum, isSet):
             updateTicks = updateTicksStart
             # Send Button selected Return request message to base
             lq = chr(getLq())
-            rpc(baseNodeAddr, 'br', pinNum, lq)
+            rpc(baseNodeAddr, 'brt', pinNum, lq, tick)
         elif curMode==MODE_TEST:
             # Display is updated by a message back from the base
             updateTicks = updateTicksStart
             # Send Button selected Return requested message to base
             lq  = chr(getLq())
-            rpc(baseNodeAddr, 'br', pinNum, lq)
+            rpc(baseNodeAddr, 'brt', pinNum, lq, tick)
         elif curMode==MODE_DEMO:
             # Update display, no Button Status message is sent
             writePin(DISPLAY_A_PIN, (pinNum==BUTTON_A_PIN)) 
             writePin(DISPLAY_B_PIN, (pinNum==BUTTON_B_PIN)) 
             writePin(DISPLAY_C_PIN, (pinNum==BUTTON_C_PIN))
             timeOutTicks = timeOutTicksStart
-        # Update button timeout and selected
+        # Update button timeout and selected, keep the press time for resends
         buttonTicks = buttonTicksStart
         curSelected = pinNum
+        pressTick = tick
         isUpdateSelect = False
 
 @setHook(HOOK_10MS)
@@ -372,9 +383,10 @@ def _doEvery10ms(tick):
     if updateTicks>0:
         updateTicks = updateTicks - 1
     else:
-        # Send Remote Status update
+        # Send Remote Status update, the tick lets the PC track this clock
         lq = chr(getLq())
-        rpc(baseNodeAddr, 'rs', curSelected, lq)
+        statusTick = _getHexTick(getMs())
+        rpc(baseNodeAddr, 'rst', curSelected, lq, statusTick)
         updateTicks = updateTicksStart
         if curMode == MODE_READY:
             if not isUpdateSelect:
@@ -382,8 +394,9 @@ def _doEvery10ms(tick):
                 writePin(DISPLAY_A_PIN, False)
                 writePin(DISPLAY_B_PIN, False)
                 writePin(DISPLAY_C_PIN, False)
-                # Send Button selected Return request message to base
-                rpc(baseNodeAddr, 'br', curSelected, lq)
+                # Resend Button selected Return request message to base,
+                # with the time of the press, not the time of the resend
+                rpc(baseNodeAddr, 'brt', curSelected, lq, pressTick)
     
     if curMode == MODE_STARTUP:
         if startupTicks <= 0:
@@ -0,0 +1,189 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import quizbox.data.QuizMessageDecoder;
+import quizbox.data.RemoteClockEstimator;
+
+/**
+ * Benchmark for RemoteClockEstimator.  Simulates remotes with their own
+ * drifting 16 bit ms clocks, sending heartbeats and button presses over 
+ * a radio that sometimes retries, and reports how often presses are put
+ * in the right order by read time and by the remote clock.  The messages
+ * go through QuizMessageDecoder the same as real ones.
+ *
+ * Usage: RemoteClockSimulator [remotes] [questions] [spreadMsec] [seed]
+ *
+ * This is in bench, not src, so it is not part of the program.  Compile
+ * and run it against the program classes, e.g. from the top directory:
+ *   javac -d bench-classes -cp classes bench/quizbox/RemoteClockSimulator.java
+ *   java -cp bench-classes:classes quizbox.RemoteClockSimulator 20 2000 20
+ * where classes holds the compiled src tree (use ';' in the class path on
+ * Windows).
+ */
+public class RemoteClockSimulator {
+	private static final long NSEC_PER_MSEC = 1000000L;
+	private static final long HEARTBEAT_NSEC = 500*NSEC_PER_MSEC;
+	private static final long QUESTION_NSEC = 5000*NSEC_PER_MSEC;
+	
+	private final Random myRandom;
+	private final int myRemotes;
+	private final long mySpread;
+	private final long[] myRemoteOffset;	// remote clock minus true time, nsec
+	private final double[] myDrift;			// remote clock rate error
+	
+	public RemoteClockSimulator(int remotes, long spreadMsec, long seed) {
+		myRandom = new Random(seed);
+		myRemotes = remotes;
+		mySpread = spreadMsec*NSEC_PER_MSEC;
+		myRemoteOffset = new long[remotes];
+		myDrift = new double[remotes];
+		for (int i=0; i<remotes; i++) {
+			myRemoteOffset[i] = (long)(myRandom.nextDouble()*600000)*NSEC_PER_MSEC;
+			myDrift[i] = (myRandom.nextDouble()*2 - 1)*50e-6;
+		}
+	}
+	
+	private static class Event {
+		final long myReadTime;
+		final long myTrueTime;
+		final int myRemote;
+		final boolean myIsPress;
+		final int myQuestion;
+		Event(long readTime, long trueTime, int remote, boolean isPress, int question) {
+			myReadTime = readTime;
+			myTrueTime = trueTime;
+			myRemote = remote;
+			myIsPress = isPress;
+			myQuestion = question;
+		}
+	}
+	
+	/**
+	 * Radio and serial delay: mostly a few msec, sometimes one or more retries
+	 */
+	private long latency() {
+		long t = (3 + myRandom.nextInt(3))*NSEC_PER_MSEC + myRandom.nextInt(1000)*1000L;
+		while (myRandom.nextDouble() < 0.25) {
+			t += (8 + myRandom.nextInt(20))*NSEC_PER_MSEC;
+		}
+		return t;
+	}
+	
+	private int remoteClock(int remote, long trueTime) {
+		long t = trueTime + myRemoteOffset[remote] + (long)(trueTime*myDrift[remote]);
+		return (int)((t/NSEC_PER_MSEC) & 0xFFFF);
+	}
+	
+	private static String frame(char type, int remote, int button, int tick) {
+		StringBuilder sb = new StringBuilder();
+		int addr = 0x100000 + remote;
+		sb.append(type);
+		sb.append((char)((addr >> 16) & 0xFF)).append((char)((addr >> 8) & 0xFF)).append((char)(addr & 0xFF));
+		sb.append(button < 10 ? "0" : "").append(button);
+		sb.append('d');
+		sb.append(String.format("%04X", tick));
+		return sb.toString();
+	}
+	
+	public void run(int questions) {
+		List<Event> events = new ArrayList<Event>();
+		long start = 1000000*NSEC_PER_MSEC;
+		long end = start + (questions+1)*QUESTION_NSEC;
+		for (int r=0; r<myRemotes; r++) {
+			for (long t=start + myRandom.nextInt(500)*NSEC_PER_MSEC; t<end; t+=HEARTBEAT_NSEC) {
+				events.add(new Event(t + latency(), t, r, false, -1));
+			}
+		}
+		for (int q=0; q<questions; q++) {
+			long t0 = start + (q+1)*QUESTION_NSEC;
+			List<Integer> remotes = new ArrayList<Integer>();
+			for (int r=0; r<myRemotes; r++) remotes.add(r);
+			Collections.shuffle(remotes, myRandom);
+			int n = 2 + myRandom.nextInt(Math.min(4, myRemotes-1));
+			for (int i=0; i<n; i++) {
+				long t = t0 + (long)(myRandom.nextDouble()*mySpread);
+				events.add(new Event(t + latency(), t, remotes.get(i), true, q));
+			}
+		}
+		Collections.sort(events, new Comparator<Event>() {
+			public int compare(Event a, Event b) {
+				return Long.compare(a.myReadTime, b.myReadTime);
+			}
+		});
+		
+		QuizMessageDecoder decoder = new QuizMessageDecoder();
+		RemoteClockEstimator clocks = new RemoteClockEstimator();
+		List<List<long[]>> presses = new ArrayList<List<long[]>>();
+		for (int q=0; q<questions; q++) presses.add(new ArrayList<long[]>());
+		long[] errors = new long[questions*5];
+		int errorCount = 0;
+		for (Event e : events) {
+			int tick = remoteClock(e.myRemote, e.myTrueTime);
+			decoder.decode(frame(e.myIsPress ? '#' : '+', e.myRemote, e.myIsPress ? 30 : 0, tick), e.myReadTime);
+			if (decoder.isButtonStatusMessage()) {
+				clocks.update(decoder.getAddress(), decoder.getRemoteTime(), decoder.getReadTime());
+			} else {
+				long pressTime = clocks.toPressTime(decoder.getAddress(), decoder.getRemoteTime(), decoder.getReadTime());
+				presses.get(e.myQuestion).add(new long[] { e.myTrueTime, e.myReadTime, pressTime });
+				errors[errorCount++] = Math.abs(pressTime - e.myTrueTime);
+			}
+		}
+		
+		int pairs = 0;
+		int byRead = 0;
+		int byRemote = 0;
+		int ties = 0;
+		for (List<long[]> list : presses) {
+			for (int i=0; i<list.size(); i++) {
+				for (int j=i+1; j<list.size(); j++) {
+					long[] a = list.get(i);
+					long[] b = list.get(j);
+					long truth = a[0] - b[0];
+					pairs++;
+					if (Long.signum(a[1] - b[1]) != Long.signum(truth)) byRead++;
+					if (a[2] == b[2]) ties++;
+					else if (Long.signum(a[2] - b[2]) != Long.signum(truth)) byRemote++;
+				}
+			}
+		}
+		long[] err = Arrays.copyOf(errors, errorCount);
+		Arrays.sort(err);
+		System.out.println("Remotes: " + myRemotes + ", questions: " + questions + 
+			", presses within " + mySpread/NSEC_PER_MSEC + " msec");
+		System.out.println("Press pairs:                " + pairs);
+		System.out.println("Wrong order by read time:   " + byRead + percent(byRead, pairs));
+		System.out.println("Wrong order by remote time: " + byRemote + percent(byRemote, pairs) + 
+			", same time: " + ties);
+		System.out.println("Press time error, msec:     median " + msec(err[err.length/2]) + 
+			", 95% " + msec(err[(int)(err.length*0.95)]) + ", max " + msec(err[err.length-1]));
+	}
+	
+	private static String percent(int n, int total) {
+		return String.format(" (%.1f%%)", 100.0*n/Math.max(1, total));
+	}
+	
+	private static String msec(long nsec) {
+		return String.format("%.2f", nsec/(double)NSEC_PER_MSEC);
+	}
+	
+	public static void main(String[] args) {
+		int remotes = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		int questions = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		long spread = (args.length > 2) ? Long.parseLong(args[2]) : 20;
+		long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+		new RemoteClockSimulator(remotes, spread, seed).run(questions);
+	}
+}
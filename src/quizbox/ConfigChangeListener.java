@@ -0,0 +1,21 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.util.Set;
+
+/**
+ * Told when a reloaded quizzing.properties has been swapped in.  Called 
+ * between questions, from whichever thread applied the reload.
+ */
+public interface ConfigChangeListener {
+	/**
+	 * @param changed the property names whose values changed
+	 */
+	public void configChanged(QuizzingConfig old, QuizzingConfig config, Set<String> changed);
+}
@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import quizbox.util.Logger;
+
+/**
+ * Watches the properties file, and when it is saved reads it again with
+ * QuizzingProperties.stageReload().  The new settings are only staged 
+ * here, they are swapped in between questions by applyPendingConfig().
+ * 
+ * Editors often write a file in several steps, so the reload waits until
+ * the file has been quiet for SETTLE_MSEC.
+ */
+public class ConfigWatcher implements Runnable {
+	private final static Logger log = Logger.getLogger(ConfigWatcher.class);
+	
+	private static final long SETTLE_MSEC = 250;
+	
+	private final QuizzingProperties myProps;
+	private final Path myDir;
+	private final Path myFileName;
+	private volatile boolean myIsDone;
+	private WatchService myWatcher;
+	private Thread myThread;
+	
+	public ConfigWatcher(QuizzingProperties props) {
+		myProps = props;
+		File f = new File(props.getFileName()).getAbsoluteFile();
+		myDir = f.getParentFile().toPath();
+		myFileName = f.toPath().getFileName();
+		myIsDone = false;
+	}
+	
+	/**
+	 * @return false if the file can not be watched
+	 */
+	public boolean start() {
+		try {
+			myWatcher = FileSystems.getDefault().newWatchService();
+			myDir.register(myWatcher, StandardWatchEventKinds.ENTRY_MODIFY, 
+				StandardWatchEventKinds.ENTRY_CREATE);
+		} catch (IOException e) {
+			log.warn("Unable to watch " + myDir.resolve(myFileName) + ": " + e.getMessage());
+			return false;
+		}
+		myThread = new Thread(this);
+		myThread.setName("ConfigWatcher");
+		myThread.setDaemon(true);
+		myThread.start();
+		return true;
+	}
+	
+	public void stop() {
+		myIsDone = true;
+		try {
+			if (myWatcher != null) myWatcher.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+	}
+	
+	public void run() {
+		try {
+			while (!myIsDone) {
+				WatchKey key = myWatcher.take();
+				boolean isChanged = isChanged(key);
+				// Wait for the writes to settle, taking any that come meanwhile
+				while (isChanged) {
+					key = myWatcher.poll(SETTLE_MSEC, TimeUnit.MILLISECONDS);
+					if (key == null) break;
+					isChanged(key);
+				}
+				if (isChanged && !myIsDone) {
+					log.info("Properties file changed, reloading");
+					myProps.stageReload();
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		}
+		log.debug("ConfigWatcher is exiting");
+	}
+	
+	/**
+	 * @return true if the key has an event for the properties file
+	 */
+	private boolean isChanged(WatchKey key) {
+		boolean isChanged = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (myFileName.equals(event.context())) isChanged = true;
+		}
+		key.reset();
+		return isChanged;
+	}
+}
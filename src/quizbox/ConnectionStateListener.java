@@ -0,0 +1,22 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+
+/**
+ * Told when the connection to the base station is lost and restored.
+ * Called from the supervisor thread, not the Swing thread.
+ */
+public interface ConnectionStateListener {
+	public void connectionLost();
+	
+	/**
+	 * @param outageMsec how long the connection was down
+	 */
+	public void connectionRestored(long outageMsec);
+}
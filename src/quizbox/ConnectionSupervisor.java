@@ -0,0 +1,137 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.util.concurrent.TimeUnit;
+
+import quizbox.util.Logger;
+import quizbox.util.WakeupSignal;
+
+/**
+ * Watches a QuizzingConnection, and when its reader dies (the USB device
+ * was unplugged, or the port failed) reopens it, waiting a little longer
+ * after each failed attempt, up to MAX_BACKOFF_MSEC.  Keeps trying until
+ * the connection comes back or is closed.
+ */
+public class ConnectionSupervisor implements Runnable {
+	private final static Logger log = Logger.getLogger(ConnectionSupervisor.class);
+	
+	public static final long MIN_BACKOFF_MSEC = 250;
+	public static final long MAX_BACKOFF_MSEC = 10000;
+	// Look at the connection now and then, in case the reader died before it was watched
+	private static final long CHECK_MSEC = 1000;
+	
+	private final QuizzingConnection myConnection;
+	private final WakeupSignal mySignal;
+	private volatile boolean myIsDone;
+	private volatile boolean myIsLost;
+	private volatile long myLostTime;
+	private volatile int myAttempts;
+	private volatile long myLastOutageMsec;
+	private Thread myThread;
+	
+	public ConnectionSupervisor(QuizzingConnection connection) {
+		myConnection = connection;
+		mySignal = new WakeupSignal();
+		myIsDone = false;
+		myIsLost = false;
+		myLostTime = 0;
+		myAttempts = 0;
+		myLastOutageMsec = 0;
+	}
+	
+	public void start() {
+		myThread = new Thread(this);
+		myThread.setName("ConnectionSupervisor");
+		myThread.setDaemon(true);
+		myThread.start();
+	}
+	
+	public void stop() {
+		myIsDone = true;
+		if (myThread != null) myThread.interrupt();
+	}
+	
+	/**
+	 * Called when the reader has stopped without being told to
+	 */
+	public void connectionLost() {
+		if (myIsDone) return;
+		if (!myIsLost) {
+			myLostTime = System.currentTimeMillis();
+			myAttempts = 0;
+			myIsLost = true;
+		}
+		mySignal.signal();
+	}
+	
+	public boolean isReconnecting() {
+		return myIsLost;
+	}
+	
+	/**
+	 * @return how long the connection has been down, zero if it is up
+	 */
+	public long getOutageMsec() {
+		return myIsLost ? (System.currentTimeMillis() - myLostTime) : 0;
+	}
+	
+	/**
+	 * @return how long the last outage lasted, zero if there was none
+	 */
+	public long getLastOutageMsec() {
+		return myLastOutageMsec;
+	}
+	
+	public int getAttempts() {
+		return myAttempts;
+	}
+	
+	public void run() {
+		try {
+			while (!myIsDone) {
+				mySignal.await(CHECK_MSEC, TimeUnit.MILLISECONDS);
+				if (!myIsLost && !myIsDone && !myConnection.isConnected()) {
+					connectionLost();
+				}
+				if (myIsLost && !myIsDone) {
+					reconnect();
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+		log.debug("ConnectionSupervisor is exiting");
+	}
+	
+	private void reconnect() throws InterruptedException {
+		log.warn("Connection to the quizzing device lost, reconnecting");
+		myConnection.fireConnectionLost();
+		long backoff = MIN_BACKOFF_MSEC;
+		while (!myIsDone) {
+			Thread.sleep(backoff);
+			myAttempts++;
+			if (myConnection.reconnect()) {
+				myLastOutageMsec = System.currentTimeMillis() - myLostTime;
+				myIsLost = false;
+				log.warn("Reconnected to the quizzing device after " + myAttempts + 
+					" attempts, outage was " + formatMsec(myLastOutageMsec));
+				myConnection.fireConnectionRestored(myLastOutageMsec);
+				return;
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Reconnect attempt " + myAttempts + " failed, next in " + backoff + " msec");
+			}
+			backoff = Math.min(backoff*2, MAX_BACKOFF_MSEC);
+		}
+	}
+	
+	public static String formatMsec(long msec) {
+		return String.format("%.1f sec", msec/1000.0);
+	}
+}
@@ -0,0 +1,237 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import quizbox.data.QuizMessage;
+import quizbox.data.QuizMessageDecoder;
+import quizbox.io.FrameDecoder;
+import quizbox.io.IOutilities;
+import quizbox.io.Transport;
+import quizbox.util.Logger;
+
+/**
+ * Finds the port the base station is on by sending a version request to
+ * every candidate port at once; the first port to answer with a version
+ * frame wins.  The port found is saved to a cache file, and tried on its 
+ * own first the next time, so startup is quick while it stays the same.
+ */
+public class PortDiscovery {
+	private final static Logger log = Logger.getLogger(PortDiscovery.class);
+	
+	public static final String AUTO_PORT = "auto";
+	public static final long DEFAULT_PROBE_TIMEOUT_MSEC = 1000;
+	private static final String CACHE_PORT_PROP = "quizzing.connect.port";
+	// The base station may still be starting after the port is opened, so ask again
+	private static final long RESEND_MSEC = 250;
+	private static final long POLL_MSEC = 20;
+	
+	private final int myBps;
+	private final String myCacheFile;
+	private long myProbeTimeout;
+	
+	/**
+	 * @param bps
+	 * @param cacheFile where the port found is saved, or null to not cache it
+	 */
+	public PortDiscovery(int bps, String cacheFile) {
+		myBps = bps;
+		myCacheFile = cacheFile;
+		myProbeTimeout = DEFAULT_PROBE_TIMEOUT_MSEC;
+	}
+	
+	public void setProbeTimeout(long msec) {
+		myProbeTimeout = msec;
+	}
+	
+	/**
+	 * Tries the cached port, then the configured port and every other port
+	 * found, all at the same time.
+	 * 
+	 * @param configuredPort the port from the properties; ignored if null or "auto"
+	 * @return the port that answered, or null if none did
+	 */
+	public String findPort(String configuredPort) {
+		long start = System.currentTimeMillis();
+		String cached = loadCachedPort();
+		if (cached != null && probe(cached)) {
+			log.info("Base station found on cached port " + cached + " in " + 
+				(System.currentTimeMillis() - start) + " msec");
+			return cached;
+		}
+		
+		List<String> ports = new ArrayList<String>();
+		if (configuredPort != null && configuredPort.trim().length() > 0 && 
+				!AUTO_PORT.equalsIgnoreCase(configuredPort.trim())) {
+			ports.add(configuredPort.trim());
+		}
+		for (String p : IOutilities.getSerialPortNames()) {
+			if (!ports.contains(p) && !p.equals(cached)) ports.add(p);
+		}
+		
+		String port = probeAll(ports);
+		if (port != null) {
+			log.info("Base station found on port " + port + " in " + 
+				(System.currentTimeMillis() - start) + " msec");
+			if (!port.equals(cached)) saveCachedPort(port);
+		} else {
+			log.warn("Base station not found, tried: " + ports);
+		}
+		return port;
+	}
+	
+	/**
+	 * @return the first of the ports to answer, or null if none did in time
+	 */
+	public String probeAll(List<String> ports) {
+		if (ports.isEmpty()) return null;
+		List<Callable<String>> probes = new ArrayList<Callable<String>>();
+		for (final String port : ports) {
+			probes.add(new Callable<String>() {
+				public String call() throws Exception {
+					if (!probe(port)) throw new IOException("No answer from " + port);
+					return port;
+				}
+			});
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(ports.size(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setName("PortProbe");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			// Cancels the other probes as soon as one answers; opening a port
+			// can be slow, so allow some time for that on top of the probe timeout
+			return pool.invokeAny(probes, myProbeTimeout*2, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			return null;
+		} catch (TimeoutException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Opens the port, asks for the version, and closes it again
+	 * 
+	 * @return true if a version frame came back within the probe timeout
+	 */
+	public boolean probe(String port) {
+		Transport transport = null;
+		try {
+			transport = IOutilities.openTransport(myBps, port);
+			byte[] request = QuizMessage.createVersionRequest().getEncodedBytes();
+			InputStream input = transport.getInputStream();
+			FrameDecoder frames = new FrameDecoder();
+			QuizMessageDecoder decoder = new QuizMessageDecoder();
+			List<String> lines = new ArrayList<String>();
+			long deadline = System.currentTimeMillis() + myProbeTimeout;
+			long resend = 0;
+			while (System.currentTimeMillis() < deadline) {
+				if (System.currentTimeMillis() >= resend) {
+					IOutilities.sendOutput(transport, request, request.length);
+					resend = System.currentTimeMillis() + RESEND_MSEC;
+				}
+				lines.clear();
+				if (frames.read(input, lines) > 0) {
+					for (String line : lines) {
+						if (isVersionFrame(decoder, line)) {
+							log.debug("Probe of " + port + " answered: " + line.trim());
+							return true;
+						}
+					}
+				} else {
+					transport.getDataSignal().await(POLL_MSEC, TimeUnit.MILLISECONDS);
+				}
+			}
+		} catch (InterruptedException e) {
+			// another port answered first
+		} catch (Exception e) {
+			log.debug("Probe of " + port + " failed: " + e);
+		} catch (LinkageError e) {
+			log.debug("Probe of " + port + " failed: " + e);
+		} finally {
+			if (transport != null) transport.close();
+		}
+		return false;
+	}
+	
+	/**
+	 * @return true for a "^version:info" frame
+	 */
+	static boolean isVersionFrame(QuizMessageDecoder decoder, String line) {
+		decoder.decode(line);
+		return decoder.isVersionMessage() && decoder.getVersion().trim().length() > 0 &&
+			line.indexOf(':') > 0;
+	}
+	
+	public String loadCachedPort() {
+		if (myCacheFile == null) return null;
+		InputStream in = null;
+		try {
+			in = new FileInputStream(myCacheFile);
+			Properties props = new Properties();
+			props.load(in);
+			String port = props.getProperty(CACHE_PORT_PROP);
+			if (port != null && port.trim().length() > 0) return port.trim();
+		} catch (IOException e) {
+			// no cached port yet
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return null;
+	}
+	
+	public void saveCachedPort(String port) {
+		if (myCacheFile == null) return;
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(myCacheFile);
+			Properties props = new Properties();
+			props.setProperty(CACHE_PORT_PROP, port);
+			props.store(out, "Base station port found by discovery");
+		} catch (IOException e) {
+			log.warn("Unable to save the port to " + myCacheFile + " - " + e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
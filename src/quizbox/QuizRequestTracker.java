@@ -0,0 +1,169 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import quizbox.data.QuizMessage;
+import quizbox.data.QuizMessageDecoder;
+import quizbox.io.BatchSerialListenerInterface;
+import quizbox.io.ConnectionException;
+import quizbox.util.Logger;
+
+/**
+ * Matches responses from the base station to the requests that asked for
+ * them.  It is registered as one more serial listener, so it sees every 
+ * line without taking it from anyone else, and does nothing while no 
+ * request is waiting.  Requests are answered oldest first.
+ */
+public class QuizRequestTracker implements BatchSerialListenerInterface {
+	private final static Logger log = Logger.getLogger(QuizRequestTracker.class);
+	
+	public static final long DEFAULT_TIMEOUT_MSEC = 2000;
+	
+	private final QuizzingConnection myConnection;
+	private final List<QuizResponseFuture> myPending;	// guarded by itself
+	private volatile int myPendingCount;
+	private final QuizMessageDecoder myDecoder;			// listener thread only
+	private final ScheduledExecutorService myTimer;
+	
+	public QuizRequestTracker(QuizzingConnection connection) {
+		myConnection = connection;
+		myPending = new ArrayList<QuizResponseFuture>();
+		myPendingCount = 0;
+		myDecoder = new QuizMessageDecoder();
+		myTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setName("QuizRequestTimer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Sends the request, and returns the future for its response.
+	 * 
+	 * @param request
+	 * @param responseType the QuizMessage *_TYPE of the response
+	 * @param address the address the response comes from, or NO_ADDRESS for any
+	 * @param infoType the info character of an INFO_TYPE response, or NO_MODE for any
+	 * @param timeoutMsec how long to wait before failing with a TimeoutException
+	 */
+	public QuizResponseFuture request(QuizMessage request, int responseType, int address, 
+			char infoType, long timeoutMsec) {
+		final QuizResponseFuture future = new QuizResponseFuture(this, request.getDataLine(), 
+			responseType, address, infoType);
+		
+		// Add before sending, so a fast response can not be missed
+		synchronized (myPending) {
+			myPending.add(future);
+			myPendingCount = myPending.size();
+		}
+		future.setTimeout(myTimer.schedule(new Runnable() {
+			public void run() {
+				if (future.fail(new TimeoutException("No response to '" + 
+						future.getRequest() + "'"))) {
+					log.info("Request timed out: '" + future.getRequest() + "'");
+				}
+				remove(future);
+			}
+		}, timeoutMsec, TimeUnit.MILLISECONDS));
+		
+		try {
+			myConnection.sendQuizMessage(request);
+		} catch (IOException e) {
+			future.fail(e);
+			remove(future);
+		}
+		return future;
+	}
+	
+	/**
+	 * Fails every waiting request, used when the connection closes
+	 */
+	public void close() {
+		List<QuizResponseFuture> pending;
+		synchronized (myPending) {
+			pending = new ArrayList<QuizResponseFuture>(myPending);
+			myPending.clear();
+			myPendingCount = 0;
+		}
+		for (QuizResponseFuture f : pending) {
+			f.fail(new ConnectionException("Connection closed", null));
+		}
+		myTimer.shutdownNow();
+	}
+	
+	public int getPendingCount() {
+		return myPendingCount;
+	}
+	
+	@Override
+	public void processLines(String[] lines, long[] readTimes, int count) {
+		if (myPendingCount == 0) return;
+		for (int i=0; i<count; i++) {
+			processLine(lines[i], readTimes[i]);
+		}
+	}
+	
+	@Override
+	public void processLine(String line) {
+		if (myPendingCount == 0) return;
+		processLine(line, System.nanoTime());
+	}
+	
+	private void processLine(String line, long readTime) {
+		if (line == null) return;
+		String trimmed = line.trim();
+		myDecoder.decode(trimmed, readTime);
+		int type = myDecoder.getMessageType();
+		if (type == QuizMessage.NONE_TYPE || type == QuizMessage.BUTTON_TYPE || 
+				type == QuizMessage.UPDATE_TYPE) {
+			return;
+		}
+		
+		// A future that is done (cancelled, or failed but not yet removed) is 
+		// dropped, so it can not take the response from a live one
+		QuizMessage msg = null;
+		while (true) {
+			QuizResponseFuture match = null;
+			synchronized (myPending) {
+				for (int i=0; i<myPending.size(); i++) {
+					QuizResponseFuture f = myPending.get(i);
+					if (f.isDone()) {
+						myPending.remove(i--);
+					} else if (f.matches(myDecoder)) {
+						match = myPending.remove(i);
+						break;
+					}
+				}
+				myPendingCount = myPending.size();
+			}
+			if (match == null) return;
+			if (msg == null) msg = new QuizMessage(trimmed, readTime);
+			// It can still be cancelled or time out after the check above
+			if (match.complete(msg)) return;
+		}
+	}
+	
+	void remove(QuizResponseFuture future) {
+		synchronized (myPending) {
+			myPending.remove(future);
+			myPendingCount = myPending.size();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import quizbox.data.QuizMessage;
+import quizbox.data.QuizMessageDecoder;
+
+/**
+ * The pending response to a request sent to the base station.  Completed
+ * by QuizRequestTracker with the first message of the expected type (and
+ * address or info type, if given), or failed when the request times out.
+ */
+public class QuizResponseFuture implements Future<QuizMessage> {
+	private final QuizRequestTracker myTracker;
+	private final String myRequest;
+	private final int myType;
+	private final int myAddress;
+	private final char myInfoType;
+	private final CountDownLatch myDone;
+	private volatile QuizMessage myResult;
+	private volatile Throwable myFailure;
+	private volatile boolean myIsCancelled;
+	private ScheduledFuture<?> myTimeout;
+	
+	/**
+	 * @param tracker the tracker waiting for the response, told when cancelled
+	 * @param request the line sent, for messages
+	 * @param type the QuizMessage *_TYPE of the response
+	 * @param address the address the response must come from, or NO_ADDRESS for any
+	 * @param infoType for INFO_TYPE responses, the info character, or NO_MODE for any
+	 */
+	QuizResponseFuture(QuizRequestTracker tracker, String request, int type, int address, char infoType) {
+		myTracker = tracker;
+		myRequest = request;
+		myType = type;
+		myAddress = address;
+		myInfoType = infoType;
+		myDone = new CountDownLatch(1);
+		myResult = null;
+		myFailure = null;
+		myIsCancelled = false;
+	}
+	
+	public String getRequest() {
+		return myRequest;
+	}
+	
+	void setTimeout(ScheduledFuture<?> timeout) {
+		myTimeout = timeout;
+	}
+	
+	boolean matches(QuizMessageDecoder msg) {
+		if (msg.getMessageType() != myType) return false;
+		if (myAddress != QuizMessageDecoder.NO_ADDRESS && msg.getAddress() != myAddress) return false;
+		if (myInfoType != QuizMessageDecoder.NO_MODE && msg.getInfoType() != myInfoType) return false;
+		return true;
+	}
+	
+	/**
+	 * @return false if the future was already done
+	 */
+	synchronized boolean complete(QuizMessage msg) {
+		if (isDone()) return false;
+		myResult = msg;
+		finish();
+		return true;
+	}
+	
+	synchronized boolean fail(Throwable t) {
+		if (isDone()) return false;
+		myFailure = t;
+		finish();
+		return true;
+	}
+	
+	private void finish() {
+		myDone.countDown();
+		if (myTimeout != null) myTimeout.cancel(false);
+	}
+	
+	/**
+	 * Also stops the tracker waiting for the response, so the next request 
+	 * of the same type gets it.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (isDone()) return false;
+			myIsCancelled = true;
+			finish();
+		}
+		myTracker.remove(this);
+		return true;
+	}
+	
+	@Override
+	public boolean isCancelled() {
+		return myIsCancelled;
+	}
+	
+	@Override
+	public boolean isDone() {
+		return myDone.getCount() == 0;
+	}
+	
+	/**
+	 * @return true if the request timed out before a response came
+	 */
+	public boolean isTimedOut() {
+		return myFailure instanceof TimeoutException;
+	}
+	
+	/**
+	 * Waits until the response arrives or the request times out
+	 * 
+	 * @throws ExecutionException with a TimeoutException cause if the request timed out
+	 */
+	@Override
+	public QuizMessage get() throws InterruptedException, ExecutionException {
+		myDone.await();
+		return report();
+	}
+	
+	@Override
+	public QuizMessage get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!myDone.await(timeout, unit)) {
+			throw new TimeoutException("No response to '" + myRequest + "' yet");
+		}
+		return report();
+	}
+	
+	private QuizMessage report() throws ExecutionException {
+		if (myIsCancelled) throw new CancellationException();
+		if (myFailure != null) throw new ExecutionException(myFailure);
+		return myResult;
+	}
+	
+	@Override
+	public String toString() {
+		return "[QuizResponseFuture=Request: '" + myRequest + "', Type: " + myType + 
+			", Done: " + isDone() + "]";
+	}
+}
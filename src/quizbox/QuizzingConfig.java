@@ -0,0 +1,418 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import quizbox.data.Points;
+import quizbox.data.QuizConstants;
+import quizbox.util.Logger;
+import static quizbox.QuizzingProperties.*;
+
+/**
+ * The settings from quizzing.properties, parsed and checked once when 
+ * the file is loaded.  Never changes, so the getters just return a field 
+ * and are cheap enough to call on every GUI update.  Loading the file 
+ * again makes a new one.
+ */
+public final class QuizzingConfig implements QuizConstants {
+	private final static Logger log = Logger.getLogger(QuizzingConfig.class);
+	
+	public static final int NO_VALUE = Integer.MIN_VALUE;
+	
+	/** Only take effect when the connection is opened again */
+	public static final Set<String> RECONNECT_KEYS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+		COMPORT_PROP, BAUD_PROP, DISCOVER_PROP, PORT_CACHE_PROP, PROBE_TIMEOUT_PROP, PANID_PROP, CHANNEL_PROP)));
+	/** Only read when the program starts */
+	public static final Set<String> RESTART_KEYS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+		IN_FILE_PROP, USE_IN_FILE_PROP, LOG_FILE_PROP, MC_POINTS_LIST_PROP, SP_POINTS_LIST_PROP, 
+		START_QUESTION_NUM_PROP, PROCESSING_SLEEP_PROP, DISPLAY_FONTSIZE_PROP)));
+	
+	// connection
+	private final String myComPort;
+	private final int myBaud;
+	private final int myConnectionTimeout;
+	private final boolean myIsPortDiscovery;
+	private final String myPortCacheFile;
+	private final int myProbeTimeout;
+	private final int myPanID;
+	private final int myChannel;
+	
+	// control
+	private final String myInputFile;
+	private final String myLogFile;
+	private final String myResultsFile;
+	private final boolean myUseInputFile;
+	private final boolean myIsAutoSelectQuestionType;
+	private final boolean myMultChoiceSelectionEnabled;
+	private final boolean mySpeedSelectionEnabled;
+	private final int[] mySpeedScoringCorrect;		// quarters of the full points
+	private final int[] mySpeedScoringIncorrect;
+	private final int myBonusPoints;
+	private final int[] myMultChoicePoints;
+	private final int[] mySpeedPoints;
+	private final boolean myAdvanceOnClear;
+	private final String myQuizTitle;
+	private final boolean myIsBeepEnabled;
+	private final String myBeepFilename;
+	private final int myStartingQuestionNumber;
+	private final int myQuizOutCount;
+	private final boolean myUseExtendedFormatRecording;
+	private final int myProcessingSleep;
+	private final double myTieWindow;
+	
+	// display
+	private final int myFontsize;
+	private final boolean myDisplaySpeedPlace;
+	private final boolean myDisplayQuestionNumber;
+	private final boolean myDisplayQuestionType;
+	private final boolean myDisplayTitle;
+	private final String myDisplayAnnouncement;
+	private final int myDisplayAnnounceAt;
+	private final boolean myDisplayCountMultChoice;
+	private final boolean myDisplayCountSpeed;
+	
+	QuizzingConfig(QuizzingProperties p) {
+		myComPort = p.getString(COMPORT_PROP);
+		myBaud = p.getInt(BAUD_PROP, 0);
+		myConnectionTimeout = positive(CONNECT_TIMEOUT_PROP, p.getInt(CONNECT_TIMEOUT_PROP, CONNECTION_TIMEOUT_MSEC), CONNECTION_TIMEOUT_MSEC);
+		myIsPortDiscovery = (myComPort == null) || myComPort.trim().equalsIgnoreCase(PortDiscovery.AUTO_PORT) ||
+			p.getBool(DISCOVER_PROP, false);
+		myPortCacheFile = p.getString(PORT_CACHE_PROP, "quizzing.port.cache");
+		myProbeTimeout = positive(PROBE_TIMEOUT_PROP, p.getInt(PROBE_TIMEOUT_PROP, (int)PortDiscovery.DEFAULT_PROBE_TIMEOUT_MSEC), 
+			(int)PortDiscovery.DEFAULT_PROBE_TIMEOUT_MSEC);
+		myPanID = p.getInt(PANID_PROP, -1);
+		myChannel = p.getInt(CHANNEL_PROP, -1);
+		
+		myInputFile = p.getString(IN_FILE_PROP);
+		myLogFile = p.getString(LOG_FILE_PROP);
+		myResultsFile = p.getString(RESULTS_FILE_PROP);
+		myUseInputFile = p.getBool(USE_IN_FILE_PROP, false);
+		myIsAutoSelectQuestionType = p.getBool(AUTO_SELECT_PROP, false);
+		myMultChoiceSelectionEnabled = p.getBool(MC_ON_PROP, true);
+		mySpeedSelectionEnabled = p.getBool(SP_ON_PROP, true);
+		mySpeedScoringCorrect = parseMultipliers(p, SP_SCORING_CORRECT_PROP);
+		mySpeedScoringIncorrect = parseMultipliers(p, SP_SCORING_INCORRECT_PROP);
+		myBonusPoints = p.getInt(BONUS_POINTS_PROP, 0);
+		myMultChoicePoints = parseInts(p, MC_POINTS_LIST_PROP);
+		mySpeedPoints = parseInts(p, SP_POINTS_LIST_PROP);
+		myAdvanceOnClear = p.getBool(ADV_ON_CLEAR_PROP, false);
+		myQuizTitle = p.getString(QUIZ_TITLE_PROP);
+		myIsBeepEnabled = p.getBool(BEEP_ENABLED_PROP, false);
+		myBeepFilename = p.getString(BEEP_FILENAME_PROP, "beep.wav");
+		myStartingQuestionNumber = p.getInt(START_QUESTION_NUM_PROP, 0);
+		myQuizOutCount = positive(QUIZ_OUT_COUNT_PROP, p.getInt(QUIZ_OUT_COUNT_PROP, 3), 3);
+		myUseExtendedFormatRecording = p.getBool(EXT_FORMAT_REC_PROP, false);
+		int sleep = p.getInt(PROCESSING_SLEEP_PROP, NO_VALUE);
+		if (sleep != NO_VALUE && sleep < 0) {
+			log.warn("Bad value for " + PROCESSING_SLEEP_PROP + ": " + sleep + ", using the default");
+			sleep = NO_VALUE;
+		}
+		myProcessingSleep = sleep;
+		double tie = p.getDouble(TIE_WINDOW_PROP, 5.0);
+		if (tie < 0) {
+			log.warn("Bad value for " + TIE_WINDOW_PROP + ": " + tie + ", using 0");
+			tie = 0;
+		}
+		myTieWindow = tie;
+		
+		myFontsize = positive(DISPLAY_FONTSIZE_PROP, p.getInt(DISPLAY_FONTSIZE_PROP, 12), 12);
+		myDisplaySpeedPlace = p.getBool(DISPLAY_SPEED_PLACE_PROP, false);
+		myDisplayQuestionNumber = p.getBool(DISPLAY_QUESTION_NUM_PROP, false);
+		myDisplayQuestionType = p.getBool(DISPLAY_QUESTION_TYPE_PROP, false);
+		myDisplayTitle = p.getBool(DISPLAY_TITLE_PROP, false);
+		myDisplayAnnouncement = p.getString(DISPLAY_ANNOUNCEMENT_PROP, "");
+		myDisplayAnnounceAt = p.getInt(DISPLAY_ANNOUNCE_AT_PROP, 0);
+		myDisplayCountMultChoice = p.getBool(DISPLAY_COUNT_MC_PROP, false);
+		myDisplayCountSpeed = p.getBool(DISPLAY_COUNT_SP_PROP, false);
+	}
+	
+	/**
+	 * @return the names of the properties that are different in this config,
+	 *   in the order they are declared
+	 */
+	public Set<String> getChangedKeys(QuizzingConfig old) {
+		Set<String> keys = new LinkedHashSet<String>();
+		changed(keys, COMPORT_PROP, old.myComPort, myComPort);
+		changed(keys, BAUD_PROP, old.myBaud, myBaud);
+		changed(keys, CONNECT_TIMEOUT_PROP, old.myConnectionTimeout, myConnectionTimeout);
+		changed(keys, DISCOVER_PROP, old.myIsPortDiscovery, myIsPortDiscovery);
+		changed(keys, PORT_CACHE_PROP, old.myPortCacheFile, myPortCacheFile);
+		changed(keys, PROBE_TIMEOUT_PROP, old.myProbeTimeout, myProbeTimeout);
+		changed(keys, PANID_PROP, old.myPanID, myPanID);
+		changed(keys, CHANNEL_PROP, old.myChannel, myChannel);
+		changed(keys, IN_FILE_PROP, old.myInputFile, myInputFile);
+		changed(keys, LOG_FILE_PROP, old.myLogFile, myLogFile);
+		changed(keys, RESULTS_FILE_PROP, old.myResultsFile, myResultsFile);
+		changed(keys, USE_IN_FILE_PROP, old.myUseInputFile, myUseInputFile);
+		changed(keys, AUTO_SELECT_PROP, old.myIsAutoSelectQuestionType, myIsAutoSelectQuestionType);
+		changed(keys, MC_ON_PROP, old.myMultChoiceSelectionEnabled, myMultChoiceSelectionEnabled);
+		changed(keys, SP_ON_PROP, old.mySpeedSelectionEnabled, mySpeedSelectionEnabled);
+		if (!Arrays.equals(old.mySpeedScoringCorrect, mySpeedScoringCorrect)) keys.add(SP_SCORING_CORRECT_PROP);
+		if (!Arrays.equals(old.mySpeedScoringIncorrect, mySpeedScoringIncorrect)) keys.add(SP_SCORING_INCORRECT_PROP);
+		changed(keys, BONUS_POINTS_PROP, old.myBonusPoints, myBonusPoints);
+		if (!Arrays.equals(old.myMultChoicePoints, myMultChoicePoints)) keys.add(MC_POINTS_LIST_PROP);
+		if (!Arrays.equals(old.mySpeedPoints, mySpeedPoints)) keys.add(SP_POINTS_LIST_PROP);
+		changed(keys, ADV_ON_CLEAR_PROP, old.myAdvanceOnClear, myAdvanceOnClear);
+		changed(keys, QUIZ_TITLE_PROP, old.myQuizTitle, myQuizTitle);
+		changed(keys, BEEP_ENABLED_PROP, old.myIsBeepEnabled, myIsBeepEnabled);
+		changed(keys, BEEP_FILENAME_PROP, old.myBeepFilename, myBeepFilename);
+		changed(keys, START_QUESTION_NUM_PROP, old.myStartingQuestionNumber, myStartingQuestionNumber);
+		changed(keys, QUIZ_OUT_COUNT_PROP, old.myQuizOutCount, myQuizOutCount);
+		changed(keys, EXT_FORMAT_REC_PROP, old.myUseExtendedFormatRecording, myUseExtendedFormatRecording);
+		changed(keys, PROCESSING_SLEEP_PROP, old.myProcessingSleep, myProcessingSleep);
+		changed(keys, TIE_WINDOW_PROP, old.myTieWindow, myTieWindow);
+		changed(keys, DISPLAY_FONTSIZE_PROP, old.myFontsize, myFontsize);
+		changed(keys, DISPLAY_SPEED_PLACE_PROP, old.myDisplaySpeedPlace, myDisplaySpeedPlace);
+		changed(keys, DISPLAY_QUESTION_NUM_PROP, old.myDisplayQuestionNumber, myDisplayQuestionNumber);
+		changed(keys, DISPLAY_QUESTION_TYPE_PROP, old.myDisplayQuestionType, myDisplayQuestionType);
+		changed(keys, DISPLAY_TITLE_PROP, old.myDisplayTitle, myDisplayTitle);
+		changed(keys, DISPLAY_ANNOUNCEMENT_PROP, old.myDisplayAnnouncement, myDisplayAnnouncement);
+		changed(keys, DISPLAY_ANNOUNCE_AT_PROP, old.myDisplayAnnounceAt, myDisplayAnnounceAt);
+		changed(keys, DISPLAY_COUNT_MC_PROP, old.myDisplayCountMultChoice, myDisplayCountMultChoice);
+		changed(keys, DISPLAY_COUNT_SP_PROP, old.myDisplayCountSpeed, myDisplayCountSpeed);
+		return keys;
+	}
+	
+	private static void changed(Set<String> keys, String key, Object a, Object b) {
+		if (a == null ? b != null : !a.equals(b)) keys.add(key);
+	}
+	
+	private static int positive(String key, int value, int def) {
+		if (value > 0) return value;
+		log.warn("Bad value for " + key + ": " + value + ", using " + def);
+		return def;
+	}
+	
+	/**
+	 * Missing or bad entries are 0, the same as before.  The multipliers are
+	 * kept as quarters, see Points.
+	 * 
+	 * @throws IllegalArgumentException if a multiplier is not a whole number
+	 *   of quarters, rounding it would quietly change the scores
+	 */
+	private static int[] parseMultipliers(QuizzingProperties p, String key) {
+		String s = p.getString(key, "");
+		if (s == null || s.trim().length() == 0) {
+			log.warn("Bad key: '" + key + "'");
+			return new int[0];
+		}
+		String[] arr = s.split(",");
+		int[] m = new int[arr.length];
+		for (int i=0; i<arr.length; i++) {
+			String v = arr[i].trim();
+			if (v.length() == 0) continue;
+			try {
+				double d = Double.parseDouble(v);
+				if (Points.isRounded(d)) {
+					throw new IllegalArgumentException("Bad multiplier in " + key + ": '" + v + 
+						"', use a multiple of 0.25");
+				}
+				m[i] = (int)Points.valueOf(d);
+			} catch (NumberFormatException nfex) {
+				log.warn("Bad double in " + key + ": '" + v + "'");
+			}
+		}
+		return m;
+	}
+	
+	/**
+	 * Bad entries are left out, the same as before
+	 */
+	private static int[] parseInts(QuizzingProperties p, String key) {
+		List<Integer> list = p.parseIntegerList(key);
+		int[] a = new int[list.size()];
+		for (int i=0; i<a.length; i++) a[i] = list.get(i);
+		return a;
+	}
+	
+	private static List<Integer> toList(int[] a) {
+		List<Integer> list = new ArrayList<Integer>(a.length);
+		for (int i : a) list.add(i);
+		return list;
+	}
+	
+	public String getComPort() {
+		return myComPort;
+	}
+	
+	public int getBaud() {
+		return myBaud;
+	}
+	
+	public int getConnectionTimeout() {
+		return myConnectionTimeout;
+	}
+	
+	public boolean getIsPortDiscovery() {
+		return myIsPortDiscovery;
+	}
+	
+	public String getPortCacheFile() {
+		return myPortCacheFile;
+	}
+	
+	public int getProbeTimeout() {
+		return myProbeTimeout;
+	}
+	
+	public int getPanID() {
+		return myPanID;
+	}
+	
+	public int getChannel() {
+		return myChannel;
+	}
+	
+	public String getInputFile() {
+		return myInputFile;
+	}
+	
+	public String getLogFile() {
+		return myLogFile;
+	}
+	
+	public String getResultsFile() {
+		return myResultsFile;
+	}
+	
+	public boolean useInputFile() {
+		return myUseInputFile;
+	}
+	
+	public boolean getIsAutoSelectQuestionType() {
+		return myIsAutoSelectQuestionType;
+	}
+	
+	public boolean getMultChoiceSelectionEnabled() {
+		return myMultChoiceSelectionEnabled;
+	}
+	
+	public boolean getSpeedSelectionEnabled() {
+		return mySpeedSelectionEnabled;
+	}
+	
+	/**
+	 * @param i the place, from 0
+	 * @return the multiplier in quarters (FULL_POINTS is 1.0), 0 if there 
+	 *   is none for the place
+	 */
+	public int getSpeedScoringCorrect(int i) {
+		return (i >= 0 && i < mySpeedScoringCorrect.length) ? mySpeedScoringCorrect[i] : 0;
+	}
+	
+	public int getSpeedScoringIncorrect(int i) {
+		return (i >= 0 && i < mySpeedScoringIncorrect.length) ? mySpeedScoringIncorrect[i] : 0;
+	}
+	
+	public int getBonusPoints() {
+		return myBonusPoints;
+	}
+	
+	public int getMultChoicePointsCount() {
+		return myMultChoicePoints.length;
+	}
+	
+	public int getMultChoicePoints(int i) {
+		return myMultChoicePoints[i];
+	}
+	
+	public List<Integer> getMultChoicePointsList() {
+		return toList(myMultChoicePoints);
+	}
+	
+	public int getSpeedPointsCount() {
+		return mySpeedPoints.length;
+	}
+	
+	public int getSpeedPoints(int i) {
+		return mySpeedPoints[i];
+	}
+	
+	public List<Integer> getSpeedPointsList() {
+		return toList(mySpeedPoints);
+	}
+	
+	public boolean getAdvanceOnClear() {
+		return myAdvanceOnClear;
+	}
+	
+	public String getQuizTitle() {
+		return myQuizTitle;
+	}
+	
+	public boolean getIsBeepEnabled() {
+		return myIsBeepEnabled;
+	}
+	
+	public String getBeepFilename() {
+		return myBeepFilename;
+	}
+	
+	public int getStartingQuestionNumber() {
+		return myStartingQuestionNumber;
+	}
+	
+	public int getQuizOutCount() {
+		return myQuizOutCount;
+	}
+	
+	public boolean getUseExtendedFormatRecording() {
+		return myUseExtendedFormatRecording;
+	}
+	
+	public int getProcessingSleepTime(int def) {
+		return (myProcessingSleep == NO_VALUE) ? def : myProcessingSleep;
+	}
+	
+	public double getTieWindow() {
+		return myTieWindow;
+	}
+	
+	public int getFontsize() {
+		return myFontsize;
+	}
+	
+	public boolean getDisplaySpeedPlace() {
+		return myDisplaySpeedPlace;
+	}
+	
+	public boolean getDisplayQuestionNumber() {
+		return myDisplayQuestionNumber;
+	}
+	
+	public boolean getDisplayQuestionType() {
+		return myDisplayQuestionType;
+	}
+	
+	public boolean getDisplayTitle() {
+		return myDisplayTitle;
+	}
+	
+	public String getDisplayAnnouncement() {
+		return myDisplayAnnouncement;
+	}
+	
+	public int getDisplayAnnounceAt() {
+		return myDisplayAnnounceAt;
+	}
+	
+	public boolean getDisplayCountMultChoice() {
+		return myDisplayCountMultChoice;
+	}
+	
+	public boolean getDisplayCountSpeed() {
+		return myDisplayCountSpeed;
+	}
+}
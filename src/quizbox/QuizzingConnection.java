@@ -8,29 +8,54 @@
 package quizbox;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import quizbox.data.QuizBoxAddress;
 import quizbox.data.QuizMessage;
+import quizbox.data.QuizMessageDecoder;
+import quizbox.io.CommandWriter;
 import quizbox.io.ConnectionException;
 import quizbox.io.ConnectionTimeoutException;
 import quizbox.io.IOutilities;
 import quizbox.io.InputStreamThread;
-import quizbox.io.SerialConnection;
+import quizbox.io.ReceivedLine;
 import quizbox.io.SerialListenerInterface;
+import quizbox.io.Transport;
 import quizbox.util.Logger;
+import quizbox.util.PipelineLatency;
 
 public class QuizzingConnection {
 	private final static Logger log = Logger.getLogger(QuizzingConnection.class);
 	
-	private SerialConnection connection;
-	private InputStreamThread reader;
+	// swapped by the supervisor in reconnect(), read each into a local once
+	private volatile Transport connection;
+	private volatile InputStreamThread reader;
+	private volatile CommandWriter writer;
+	private volatile QuizRequestTracker requests;
+	private ConnectionSupervisor supervisor;
+	
+	private static final int STARTUP_ATTEMPTS = 3;
 	
 	private String myVersion;
 	private String myInfo;
+	private int myBps;
+	private String myPort;
+	private volatile boolean myIsLowLatency;
+	private volatile boolean myIsClosed;
+	// kept so they can be added to the new reader after a reconnect
+	private final List<SerialListenerInterface> myListeners;
+	private final List<ConnectionStateListener> myStateListeners;
 	
 	public QuizzingConnection() {
 		myVersion = "";
 		myInfo = "";
+		myIsLowLatency = false;
+		myIsClosed = false;
+		myListeners = new CopyOnWriteArrayList<SerialListenerInterface>();
+		myStateListeners = new CopyOnWriteArrayList<ConnectionStateListener>();
 		
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 		    public void run() { 
@@ -43,31 +68,92 @@ public class QuizzingConnection {
 	}
 	
 	public String getConnectionMessage() {
-		if (isConnected()) return "Connected: " + myVersion + " [" + myInfo + "]";
+		ConnectionSupervisor s = supervisor;
+		if (s != null && s.isReconnecting()) {
+			return "Reconnecting to " + myPort + ", down " + 
+				ConnectionSupervisor.formatMsec(s.getOutageMsec());
+		}
+		if (isConnected()) {
+			String msg = "Connected: " + myVersion + " [" + myInfo + "]";
+			if (s != null && s.getLastOutageMsec() > 0) {
+				msg += ", last outage " + ConnectionSupervisor.formatMsec(s.getLastOutageMsec());
+			}
+			return msg;
+		}
 		return "Not connected";
 	}
 
-	private void doStartupChecks() {
-		try {
-			sendQuizMessage(QuizMessage.createVersionRequest());
-			
-			boolean found = false;
-			while (!found) {
-				QuizMessage qm = getNextInputMessage(5000);
-				found = qm.isVersionMessage();
-				if (found) {
-					myVersion = qm.getVersion();
-					myInfo = qm.getInfoString();
-					log.info("Quizzing device found: version = '" + myVersion + "' / '" + myInfo + "'");
-				}
+	/**
+	 * @return true if the device answered the version request
+	 */
+	private boolean doStartupChecks() {
+		for (int i=1; i<=STARTUP_ATTEMPTS; i++) {
+			try {
+				QuizMessage qm = requestVersion().get();
+				myVersion = qm.getVersion();
+				myInfo = qm.getInfoString();
+				log.info("Quizzing device found: version = '" + myVersion + "' / '" + myInfo + "'");
+				return true;
+			} catch (ExecutionException e) {
+				log.warn("Startup check failed, attempt " + i + " of " + STARTUP_ATTEMPTS + 
+					": " + e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				log.warn("Startup check interrupted");
+				Thread.currentThread().interrupt();
+				return false;
 			}
-		} catch (IOException e) {
-			log.warn("Startup check failed", e);
-		} catch (ConnectionException e) {
-			log.warn("Startup check unable to connect", e);
-		} catch (ConnectionTimeoutException e) {
-			log.warn("Startup check timed out", e);
 		}
+		log.warn("No version response from the quizzing device");
+		return false;
+	}
+	
+	/**
+	 * Asks the base station for its version, answered by a '^' message
+	 */
+	public QuizResponseFuture requestVersion() {
+		return request(QuizMessage.createVersionRequest(), QuizMessage.VERSION_TYPE, 
+			QuizMessageDecoder.NO_ADDRESS, QuizMessageDecoder.NO_MODE);
+	}
+	
+	/**
+	 * Asks the base station for its mode and link quality, answered by a '!' message
+	 */
+	public QuizResponseFuture requestStatus() {
+		return request(QuizMessage.createStatusRequest(), QuizMessage.MODE_TYPE, 
+			QuizMessageDecoder.NO_ADDRESS, QuizMessageDecoder.NO_MODE);
+	}
+	
+	/**
+	 * Asks all of the remotes for their link quality.  Every remote answers
+	 * with an '@' message, the future gets the first of them; listeners get all.
+	 */
+	public QuizResponseFuture requestLinkQuality() {
+		return request(QuizMessage.createLinkQualityRequest(), QuizMessage.STATUS_TYPE, 
+			QuizMessageDecoder.NO_ADDRESS, QuizMessageDecoder.NO_MODE);
+	}
+	
+	/**
+	 * Asks one remote for its link quality, answered by an '@' message from it
+	 */
+	public QuizResponseFuture requestLinkQuality(QuizBoxAddress addr) {
+		return request(QuizMessage.createLinkQualityRequest(addr.getBinaryAddress()), 
+			QuizMessage.STATUS_TYPE, addr.getAddressValue(), QuizMessageDecoder.NO_MODE);
+	}
+	
+	/**
+	 * Asks the base station for its baud rate, answered by a '%b' message
+	 */
+	public QuizResponseFuture requestBaudRate() {
+		return request(QuizMessage.createBaudRateRequest(), QuizMessage.INFO_TYPE, 
+			QuizMessageDecoder.NO_ADDRESS, 'b');
+	}
+	
+	private QuizResponseFuture request(QuizMessage msg, int type, int address, char infoType) {
+		QuizRequestTracker r = requests;
+		if (r == null) {
+			throw new IllegalStateException("No connection");
+		}
+		return r.request(msg, type, address, infoType, QuizRequestTracker.DEFAULT_TIMEOUT_MSEC);
 	}
 	
 	public boolean open(int bps, String port) {
@@ -77,10 +163,9 @@ public class QuizzingConnection {
 						" existing connection is still open.");
 			}
 			
-			SerialConnection serial = new SerialConnection(); 
-			serial.connect(bps, port);
-			
-			initConnection(serial);
+			initConnection(IOutilities.openTransport(bps, port));
+			myBps = bps;
+			myPort = port;
 		} catch (Exception e) {		
 			log.warn("Unable to open connection to port: " + port + " - " + e);
 			System.out.println("Unable to open serial port, available ports are: ");
@@ -91,46 +176,151 @@ public class QuizzingConnection {
 			closeSerialConnection();
 			return false;
 		}
+		
+		// Only a port opened here can be opened again
+		if (supervisor == null) {
+			supervisor = new ConnectionSupervisor(this);
+			supervisor.start();
+		}
 		return true;
 	}
 			
-	private void initConnection(SerialConnection conn) {			
+	/**
+	 * Uses a transport that is already connected, such as a LoopbackTransport
+	 * 
+	 * @return true if the transport is connected
+	 */
+	public boolean open(Transport transport) {
+		if (isConnected()) {
+			throw new IllegalStateException("Cannot open new connection --" + 
+					" existing connection is still open.");
+		}
+		if (!transport.isConnected()) return false;
+		initConnection(transport);
+		return true;
+	}
+			
+	private boolean initConnection(Transport conn) {			
+		InputStreamThread r = new InputStreamThread(101, conn);
+		r.setLowLatency(myIsLowLatency);
+		r.setExitListener(new Runnable() {
+			public void run() {
+				ConnectionSupervisor s = supervisor;
+				if (s != null) s.connectionLost();
+			}
+		});
+		CommandWriter w = new CommandWriter(conn);
+		w.start();
+		QuizRequestTracker t = new QuizRequestTracker(this);
+		r.getSerialListeners().add(t);
+		for (SerialListenerInterface listener : myListeners) {
+			r.getSerialListeners().add(listener);
+		}
 		connection = conn;
-		reader = new InputStreamThread(101, connection);
-		doStartupChecks();
+		writer = w;
+		requests = t;
+		reader = r;
+		return doStartupChecks();
+	}
+	
+	/**
+	 * Closes what is left of the old connection and opens the port again;
+	 * called by the supervisor after the reader has died.
+	 * 
+	 * @return true if the port opened and the device answered
+	 */
+	synchronized boolean reconnect() {
+		if (myIsClosed) return false;
+		closeReader();
+		closeSerialConnection();
+		try {
+			if (initConnection(IOutilities.openTransport(myBps, myPort))) return true;
+		} catch (Exception e) {
+			log.debug("Unable to reopen port: " + myPort + " - " + e);
+		}
+		closeReader();
+		closeSerialConnection();
+		return false;
+	}
+	
+	public void addConnectionStateListener(ConnectionStateListener listener) {
+		myStateListeners.add(listener);
+	}
+	
+	public void removeConnectionStateListener(ConnectionStateListener listener) {
+		myStateListeners.remove(listener);
+	}
+	
+	void fireConnectionLost() {
+		for (ConnectionStateListener listener : myStateListeners) {
+			try {
+				listener.connectionLost();
+			} catch (RuntimeException e) {
+				log.warn("Connection state listener failed", e);
+			}
+		}
+	}
+	
+	void fireConnectionRestored(long outageMsec) {
+		for (ConnectionStateListener listener : myStateListeners) {
+			try {
+				listener.connectionRestored(outageMsec);
+			} catch (RuntimeException e) {
+				log.warn("Connection state listener failed", e);
+			}
+		}
 	}
 
-	public void addMessageListener(SerialListenerInterface listener) { 
-		if (reader == null) {
+	/**
+	 * @param isLowLatency true while buttons are unlocked, to pick up presses
+	 *   as fast as possible; false to use as little CPU as possible
+	 */
+	public void setLowLatency(boolean isLowLatency) {
+		myIsLowLatency = isLowLatency;
+		InputStreamThread r = reader;
+		if (r != null) r.setLowLatency(isLowLatency);
+	}
+
+	/**
+	 * The listener stays registered across reconnects; synchronized with
+	 * reconnect(), so the new reader gets exactly the registered listeners
+	 */
+	public synchronized void addMessageListener(SerialListenerInterface listener) { 
+		InputStreamThread r = reader;
+		if (r == null && supervisor == null) {
 			throw new IllegalStateException("No connection");
 		}
 		
-		synchronized (reader.getSerialListenerList()) {
-			reader.getSerialListenerList().add(listener);	
-		}
+		myListeners.add(listener);
+		if (r != null) r.getSerialListeners().add(listener);
 	}
 
-	public void removeMessageListener(SerialListenerInterface listener) {
-		if (reader == null) {
+	public synchronized void removeMessageListener(SerialListenerInterface listener) {
+		InputStreamThread r = reader;
+		if (r == null && supervisor == null) {
 			throw new IllegalStateException("No connection");
 		}
 		
-		synchronized (reader.getSerialListenerList()) {
-			reader.getSerialListenerList().remove(listener);
-		}
+		myListeners.remove(listener);
+		if (r != null) r.getSerialListeners().remove(listener);
 	}
 	
 	/** 
-	 * Not thread safe.
+	 * Queues the message for the writer thread, commands sent close 
+	 * together go out in one write.
 	 * @param msg
 	 * @throws IOException
 	 */
 	public void sendQuizMessage(QuizMessage msg) throws IOException {
-		IOutilities.sendOutput(connection, msg.getDataLine()+"\n");
+		CommandWriter w = writer;
+		if (w == null) {
+			log.error("Device is not connected");
+			return;
+		}
+		w.send(msg.getEncodedBytes());
 	}
 	
 	/** 
-	 * Not thread safe.
 	 * @param msg
 	 */
 	public void sendQuizMessageChecked(QuizMessage msg) {
@@ -145,31 +335,38 @@ public class QuizzingConnection {
 		return getNextInputLineTimeout(null);
 	}
 	
+	/**
+	 * Takes the next line from the input line queue.  Every line goes on 
+	 * that queue, use the request methods to wait for a particular response.
+	 * 
+	 * @return the message, or null if none arrived within the timeout
+	 */
 	public QuizMessage getNextInputMessage(int timeout) throws ConnectionException, ConnectionTimeoutException {
 		return getNextInputLineTimeout(timeout);
 	}
 	
 	private QuizMessage getNextInputLineTimeout(Integer timeout) throws ConnectionException, ConnectionTimeoutException {
+		InputStreamThread r = reader;
+		if (r == null) {
+			throw new ConnectionException("Device is not connected");
+		}
 		QuizMessage qm = null;
 		try {
-			String line = null;
+			ReceivedLine line = null;
 			if (timeout != null) {
-				line = reader.getInputLineQueue().poll(timeout, TimeUnit.MILLISECONDS);	
+				line = r.getInputLineQueue().poll(timeout, TimeUnit.MILLISECONDS);	
 			} else {
-				line = reader.getInputLineQueue().take();
+				line = r.getInputLineQueue().take();
 			}
 			if (line != null) {
-				qm = new QuizMessage(line);
+				qm = new QuizMessage(line.getLine(), line.getReadTime());
+			} else if (log.isDebugEnabled()) {
+				log.debug("Input stream timed out after " + timeout + " msec");
 			}
 		} catch (InterruptedException e) {
 			throw new ConnectionException("Error while attempting to remove packet from queue", e);
 		}
 		
-		if (timeout != null && timeout > 0) {
-			log.info("Input stream timed out");
-			//throw new ConnectionTimeoutException();
-		}
-		
 		return qm;
 	}
 	
@@ -178,29 +375,51 @@ public class QuizzingConnection {
 	 * Shuts down RXTX and packet parser thread
 	 */
 	public void close() {		
-		if (!isConnected()) {
-			//throw new IllegalStateException("Serial Device is not connected");
-			log.warn("Serial Device is not connected");
-			return;
+		log.info("Button press latency by stage:\n" + PipelineLatency.getReport());
+		myIsClosed = true;
+		if (supervisor != null) {
+			supervisor.stop();
+		}
+		synchronized (this) {
+			if (!isConnected()) {
+				//throw new IllegalStateException("Serial Device is not connected");
+				log.warn("Serial Device is not connected");
+				return;
+			}
+			closeReader();
+			closeSerialConnection();
 		}
-		closeReader();
-		closeSerialConnection();
 	}
 		
 	private void closeReader() {
+		QuizRequestTracker t = requests;
+		requests = null;
+		if (t != null) {
+			t.close();
+		}
+		
+		// send anything still queued before the connection goes away
+		CommandWriter w = writer;
+		writer = null;
+		if (w != null) {
+			w.close();
+		}
+		
 		// shutdown parser thread
-		if (reader != null) {
-			reader.setDone(true);
+		InputStreamThread r = reader;
+		reader = null;
+		if (r != null) {
+			r.setDone(true);
 			// interrupts thread, if waiting.  does not interrupt thread if blocking on read
 			// serial port close will be closed prior to thread exit
-			reader.interrupt();
+			r.interrupt();
 		}		
-		reader = null;
 	}
 	
 	private void closeSerialConnection() {
-		if (connection != null) connection.close();
+		Transport c = connection;
 		connection = null;	
+		if (c != null) c.close();
 	}
 
 	/**
@@ -210,14 +429,19 @@ public class QuizzingConnection {
 	 * @return
 	 */
 	public boolean isConnected() {
-		if (reader == null) return false;
-		return reader.getConnection().isConnected();
+		InputStreamThread r = reader;
+		if (r == null) return false;
+		return r.getConnection().isConnected();
 	}
 	
 	/**
 	 * Removes all lines off of the response queue
 	 */
-	public void clearInputLineQueue() {
-		reader.getInputLineQueue().clear();
+	public void clearInputLineQueue() throws ConnectionException {
+		InputStreamThread r = reader;
+		if (r == null) {
+			throw new ConnectionException("Device is not connected");
+		}
+		r.getInputLineQueue().clear();
 	}
 }
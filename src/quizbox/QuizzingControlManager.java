@@ -7,6 +7,7 @@
 
 package quizbox;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
@@ -14,13 +15,17 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.ButtonModel;
 
+import quizbox.data.PlacementSnapshot;
 import quizbox.data.QuizBoxAddress;
+import quizbox.data.QuizBoxData;
 import quizbox.data.QuizConstants;
 import quizbox.data.QuizTeam;
 import quizbox.util.Logger;
@@ -32,8 +37,9 @@ public class QuizzingControlManager implements QuizConstants {
 	private QuizzingHelper myQuizHelper;
 	private QuizzingProperties myProps;
 	private PrintWriter myLogPrintStream;
+	private ResultsWriter myResultsWriter;
 	
-	private int myQuizoutBonus;
+	private volatile int myQuizoutBonus;
 	private int myQuestionNumber;
 	private int myQuestionType;
 	private int myAnswer;
@@ -41,6 +47,7 @@ public class QuizzingControlManager implements QuizConstants {
 	private int myWorkingPlace;
 	
 	private AtomicBoolean myIsLocked;
+	private volatile long myLockChangeTime;
 	private boolean myIsScheduledReset;
 	private boolean myIsScheduledQuit;
 
@@ -48,9 +55,11 @@ public class QuizzingControlManager implements QuizConstants {
 		myQuizHelper = quiz;
 		myProps = props;
 		props.loadTeams();
+		myResultsWriter = new ResultsWriter();
 		myQuizoutBonus = props.getBonusPoints();
 			
 		myIsLocked = new AtomicBoolean(false);
+		myLockChangeTime = System.nanoTime();
 		myIsScheduledReset = false;		
 		myIsScheduledQuit = false;
 		
@@ -59,6 +68,13 @@ public class QuizzingControlManager implements QuizConstants {
 		myAnswer = NO_BTN;
 		myPoints = 0;
 		myWorkingPlace = 0;
+		QuizBoxData.getRegistry().getPlacements().setTieWindow((long)(props.getTieWindow()*1000000));
+		props.addConfigChangeListener(new ConfigChangeListener() {
+			public void configChanged(QuizzingConfig old, QuizzingConfig config, Set<String> changed) {
+				myQuizoutBonus = config.getBonusPoints();
+				QuizBoxData.getRegistry().getPlacements().setTieWindow((long)(config.getTieWindow()*1000000));
+			}
+		});
 		myQuizHelper.resetPlaces();
     	
 		try {
@@ -98,17 +114,17 @@ public class QuizzingControlManager implements QuizConstants {
 		}		
 	}
 	
-	public void setCurrentNormalPoints(QuizBoxAddress addr, double points) {
+	public void setCurrentNormalPoints(QuizBoxAddress addr, int points) {
 		setCurrentNormalPoints(QuizTeam.getQuizTeam(addr), points);
 	}
-	public void setCurrentNormalPoints(QuizTeam qt, double points) {
+	public void setCurrentNormalPoints(QuizTeam qt, int points) {
 		if (qt != null) qt.setCurrentNormalPoints(points);
 	}
 	
-	public void setCurrentBonusPoints(QuizBoxAddress addr, double points) {
+	public void setCurrentBonusPoints(QuizBoxAddress addr, int points) {
 		setCurrentBonusPoints(QuizTeam.getQuizTeam(addr), points);
 	}	
-	public void setCurrentBonusPoints(QuizTeam qt, double points) {
+	public void setCurrentBonusPoints(QuizTeam qt, int points) {
 		if (qt != null) qt.setCurrentBonusPoints(points);
 	}	
 	
@@ -122,8 +138,15 @@ public class QuizzingControlManager implements QuizConstants {
 	
 	public void setCurrentPlace(QuizBoxAddress addr) {
 		if (myQuizHelper != null) {
-			int placing = myQuizHelper.updatePlace(addr);
-			setCurrentPlace(QuizTeam.getQuizTeam(addr), placing);
+			myQuizHelper.updatePlace(addr);
+		}
+	}
+	/**
+	 * Places the box by when its press was read, not when it is processed
+	 */
+	public void setCurrentPlaceByTime(QuizBoxAddress addr, long readTime) {
+		if (myQuizHelper != null) {
+			myQuizHelper.updatePlace(addr, readTime);
 		}
 	}
 	public void setCurrentPlace(QuizBoxAddress addr, int place) {
@@ -147,6 +170,14 @@ public class QuizzingControlManager implements QuizConstants {
 		return (qt == null)?0:qt.getCurrentPlacing();
 	}
 	
+	/**
+	 * @return the placings of the current question as they are now; read 
+	 *   all of the boxes from one snapshot so that they agree
+	 */
+	public PlacementSnapshot getPlacementSnapshot() {
+		return QuizBoxData.getRegistry().getPlacements().getSnapshot();
+	}
+	
 	public int getCorrectSpeedCount(QuizBoxAddress addr) {
 		return getCorrectSpeedCount(QuizTeam.getQuizTeam(addr));
 	}
@@ -154,32 +185,35 @@ public class QuizzingControlManager implements QuizConstants {
 		return (qt == null)?0:qt.getCorrectSpeedCount();
 	}
 	
-	public double getCurrentPoints(QuizBoxAddress addr) {
+	public int getCurrentPoints(QuizBoxAddress addr) {
 		return getCurrentPoints(QuizTeam.getQuizTeam(addr));		
 	}
-	public double getCurrentPoints(QuizTeam qt) {
-		return (qt == null)?0.0:qt.getCurrentPoints();
+	public int getCurrentPoints(QuizTeam qt) {
+		return (qt == null)?0:qt.getCurrentPoints();
 	}
 	
-	public double getCurrentNormalPoints(QuizBoxAddress addr) {
+	public int getCurrentNormalPoints(QuizBoxAddress addr) {
 		return getCurrentNormalPoints(QuizTeam.getQuizTeam(addr));		
 	}
-	public double getCurrentNormalPoints(QuizTeam qt) {
-		return (qt == null)?0.0:qt.getCurrentNormalPoints();		
+	public int getCurrentNormalPoints(QuizTeam qt) {
+		return (qt == null)?0:qt.getCurrentNormalPoints();		
 	}
 
-	public double getCurrentBonusPoints(QuizBoxAddress addr) {
+	public int getCurrentBonusPoints(QuizBoxAddress addr) {
 		return getCurrentBonusPoints(QuizTeam.getQuizTeam(addr));		
 	}
-	public double getCurrentBonusPoints(QuizTeam qt) {
-		return (qt == null)?0.0:qt.getCurrentBonusPoints();		
+	public int getCurrentBonusPoints(QuizTeam qt) {
+		return (qt == null)?0:qt.getCurrentBonusPoints();		
 	}
 		
-	public double getCurrentTotal(QuizBoxAddress addr) {
+	/**
+	 * @return the total in quarter points, see Points
+	 */
+	public long getCurrentTotal(QuizBoxAddress addr) {
 		return getCurrentTotal(QuizTeam.getQuizTeam(addr));		
 	}
-	public double getCurrentTotal(QuizTeam qt) {
-		return (qt == null)?0.0:qt.getTotalPoints();		
+	public long getCurrentTotal(QuizTeam qt) {
+		return (qt == null)?0:qt.getTotalPoints();		
 	}
 	
 	
@@ -271,8 +305,21 @@ public class QuizzingControlManager implements QuizConstants {
 	public boolean getIsLocked() {
 		return myIsLocked.get();
 	}
+	/**
+	 * @param time a System.nanoTime() value, such as when a message was read
+	 * @return whether the buttons were locked at that time
+	 */
+	public boolean wasLockedAt(long time) {
+		boolean locked = myIsLocked.get();
+		if (time - myLockChangeTime < 0) return !locked;
+		return locked;
+	}
 	public boolean setIsLocked(boolean b, boolean doClear) {
+		long now = System.nanoTime();
 		boolean prev = myIsLocked.getAndSet(b);
+		if (prev != b) myLockChangeTime = now;
+		// Only worth spinning for presses while they are accepted
+		myQuizHelper.setLowLatency(!b);
 		if (b) {
 			if (doClear) myQuizHelper.sendLockClear();
 			else myQuizHelper.sendLock();
@@ -284,6 +331,17 @@ public class QuizzingControlManager implements QuizConstants {
 		return prev;
 	}
 	
+	/**
+	 * Sends the current lock state again, without clearing, so a base 
+	 * station that was reconnected (and maybe reset) matches the question
+	 * in progress; placings and answers already taken are kept.
+	 */
+	public void resendLockState() {
+		if (myIsLocked.get()) myQuizHelper.sendLock();
+		else myQuizHelper.sendUnlock();
+		log.info("Resent lock state, locked = " + myIsLocked.get());
+	}
+	
 	public boolean isReset() {
 		boolean b = myIsScheduledReset;
 		myIsScheduledReset = false;
@@ -354,12 +412,10 @@ public class QuizzingControlManager implements QuizConstants {
 		return (a == myAnswer);
 	}
 	public boolean isCorrectSpeed(QuizBoxAddress addr) {
-		double d = getCurrentPoints(addr);
-		return (d > 0.0);
+		return (getCurrentPoints(addr) > 0);
 	}
 	public boolean isIncorrectSpeed(QuizBoxAddress addr) {
-		double d = getCurrentPoints(addr);
-		return (d < 0.0);
+		return (getCurrentPoints(addr) < 0);
 	}
 	
 	public String getAnswerString(QuizBoxAddress addr) {
@@ -370,13 +426,36 @@ public class QuizzingControlManager implements QuizConstants {
 		return getCurrentAnswer(addr);
 	}	
 	public String getPlaceString(QuizBoxAddress addr) {
-		int p = getCurrentPlace(addr);
+		return getPlaceString(getPlacementSnapshot(), addr);
+	}
+	public String getPlaceString(PlacementSnapshot places, QuizBoxAddress addr) {
+		int p = getPlaceValue(places, addr);
 		if (p <= 0) return "";
 		return ("" + p);
 	}
+	/**
+	 * @return the place, with "=" after it if it is tied
+	 */
+	public String getPlaceMarkString(PlacementSnapshot places, QuizBoxAddress addr) {
+		String s = getPlaceString(places, addr);
+		if (s.length() > 0 && places.isTied(QuizBoxData.getQuizBoxData(addr))) s += "=";
+		return s;
+	}
+	/**
+	 * @return msec after the press of the place before, or "" if there is none
+	 */
+	public String getPlaceGapString(PlacementSnapshot places, QuizBoxAddress addr) {
+		QuizBoxData qbd = QuizBoxData.getQuizBoxData(addr);
+		long gap = (qbd == null) ? PlacementSnapshot.NO_GAP : places.getGap(qbd.getSlot());
+		if (gap == PlacementSnapshot.NO_GAP) return "";
+		return String.format("%.2f", gap/1000000.0);
+	}
 	public int getPlaceValue(QuizBoxAddress addr) {
 		return getCurrentPlace(addr);
 	}
+	public int getPlaceValue(PlacementSnapshot places, QuizBoxAddress addr) {
+		return places.getPlace(QuizBoxData.getQuizBoxData(addr));
+	}
 
 	public boolean isQuizOut(QuizBoxAddress addr) {
 		return isQuizOut(addr, 0);
@@ -392,20 +471,20 @@ public class QuizzingControlManager implements QuizConstants {
 	
 	public boolean isQuizOutBasic(QuizBoxAddress addr, int adjust) {
 		Integer cnt = getCorrectSpeedCount(addr)+adjust;
-		boolean result = (cnt != null) && (cnt == myProps.getQuizOutCount());
+		boolean result = (cnt != null) && (cnt == myProps.getConfig().getQuizOutCount());
 		return result;
 	}
 	
 	public void updateCurrentPoints(QuizBoxAddress addr, int speedAnswer) {
-		double score = ZERO_POINTS;
-		double bonus = 0.0;
+		int score = ZERO_POINTS;
+		int bonus = ZERO_POINTS;
 		if (myQuestionType == MC_QUESTION_TYPE) {
 			int answer = getCurrentAnswer(addr);
 			if (answer == myAnswer && answer != NO_BTN) {
 				score = FULL_POINTS;
 			}
 		} else if (myQuestionType == SPEED_QUESTION_TYPE) {
-			double d = 0.0;
+			int d = ZERO_POINTS;
 			boolean isCorrect = (speedAnswer == CORRECT_SPEED_ANSWER);
 			boolean isIncorrect = (speedAnswer == INCORRECT_SPEED_ANSWER);
 			if (isCorrect) {
@@ -418,18 +497,19 @@ public class QuizzingControlManager implements QuizConstants {
 				// Zero all other scores
 				for (QuizTeam qt : QuizTeam.getSortedTeams()) {
 					if (qt != null) {
-						qt.setCurrentNormalPoints(0.0);
-						qt.setCurrentBonusPoints(0.0);
+						qt.setCurrentNormalPoints(ZERO_POINTS);
+						qt.setCurrentBonusPoints(ZERO_POINTS);
 					}
 				}
 			}
+			QuizzingConfig config = myProps.getConfig();
 			if (isCorrect) {
-				if (isQuizOutBasic(addr, 1)) bonus = 1.0;
-				d = myProps.getSpeedScoringCorrect(p-1);
+				if (isQuizOutBasic(addr, 1)) bonus = FULL_POINTS;
+				d = config.getSpeedScoringCorrect(p-1);
 			} else if (isIncorrect) {
-				d = myProps.getSpeedScoringIncorrect(p-1);				
+				d = config.getSpeedScoringIncorrect(p-1);				
 			}
-			score = (d * FULL_POINTS);
+			score = d;
 		}
 		setCurrentNormalPoints(addr, score);
 		setCurrentBonusPoints(addr, bonus);
@@ -450,9 +530,11 @@ public class QuizzingControlManager implements QuizConstants {
 	}
 	
 	public void updateTotals() {
-		for (QuizTeam qt : QuizTeam.getValues()) {
+		int n = QuizBoxData.getRegistry().size();
+		for (int i=0; i<n; i++) {
+			QuizTeam qt = QuizTeam.getQuizTeamAt(i);
 			if (qt != null) {
-				double cur = getCurrentNormalPoints(qt);
+				int cur = getCurrentNormalPoints(qt);
 				if (myQuestionType == SPEED_QUESTION_TYPE && (cur > 0)) {
 					qt.incrementCorrectSpeedCount();
 				}
@@ -467,33 +549,33 @@ public class QuizzingControlManager implements QuizConstants {
 		}
 	}	
 	
-	public double calcRealNormalPoints(QuizBoxAddress addr) {
-		// Scores are stored (temporarily) as a fraction of the full points
-		// To adjust to "real" score, multiply by myPoints.
+	public long calcRealNormalPoints(QuizBoxAddress addr) {
+		// Scores are stored (temporarily) as quarters of the full points
+		// To adjust to "real" score (in quarter points), multiply by myPoints.
 		//
-		double raw = getCurrentNormalPoints(addr);
+		long raw = getCurrentNormalPoints(addr);
 		return (raw * myPoints);
 	}
-	public double calcRealNormalPoints(QuizTeam qt) {
-		// Scores are stored (temporarily) as a fraction of the full points
-		// To adjust to "real" score, multiply by myPoints.
+	public long calcRealNormalPoints(QuizTeam qt) {
+		// Scores are stored (temporarily) as quarters of the full points
+		// To adjust to "real" score (in quarter points), multiply by myPoints.
 		//
-		double raw = (qt == null)?0.0:qt.getCurrentNormalPoints();
+		long raw = (qt == null)?0:qt.getCurrentNormalPoints();
 		return (raw * myPoints);
 	}
 	
-	public double calcRealBonusPoints(QuizBoxAddress addr, int quizout_adj) {
-		// Scores are stored (temporarily) as a fraction of the full points
-		// To adjust to "real" score, multiply by myPoints.
+	public long calcRealBonusPoints(QuizBoxAddress addr, int quizout_adj) {
+		// Scores are stored (temporarily) as quarters of the full points
+		// To adjust to "real" score (in quarter points), multiply by myQuizoutBonus.
 		//
-		double raw = getCurrentBonusPoints(addr);
+		long raw = getCurrentBonusPoints(addr);
 		return (raw * myQuizoutBonus);
 	}
-	public double calcRealBonusPoints(QuizTeam qt, int quizout_adj) {
-		// Scores are stored (temporarily) as a fraction of the full points
-		// To adjust to "real" score, multiply by myPoints.
+	public long calcRealBonusPoints(QuizTeam qt, int quizout_adj) {
+		// Scores are stored (temporarily) as quarters of the full points
+		// To adjust to "real" score (in quarter points), multiply by myQuizoutBonus.
 		//
-		double raw = (qt == null)?0.0:qt.getCurrentBonusPoints();
+		long raw = (qt == null)?0:qt.getCurrentBonusPoints();
 		return (raw * myQuizoutBonus);
 	}
 	
@@ -503,99 +585,40 @@ public class QuizzingControlManager implements QuizConstants {
 			log.info(results);
 		}
 		updateTotals();
-		QuizzingHelper.fillTeamStandings(QuizTeam.getSortedTeams());
 		
-		if (myLogPrintStream != null) myLogPrintStream.println("#");
-		
-		int questionNum = myQuestionNumber;
-		String s = "# MSG" + SEP + "Question#" + SEP +
-			"Type" + SEP + "-" + SEP + "-" + SEP + "-" + 
-			SEP + "Answer" + SEP + "-" + SEP + "Points";
-		if (myLogPrintStream != null) myLogPrintStream.println(s);
-		
-		s = "SUMMARY" + SEP + questionNum + SEP + 
-		translateQuestionType(myQuestionType) + SEP + "-" + SEP + "-" + SEP + "-" + SEP +
-		translateAnswer(myAnswer) + SEP + "-" + SEP + myPoints;
-		if (myLogPrintStream != null) myLogPrintStream.println(s);
-		
-		s = "# MSG" + SEP + "Question#" + SEP +
-			"Box#" + SEP + "Address" + SEP + "Name" + SEP + "SpCnt" + SEP + 
-			"Answer" + SEP + "Place" + SEP +
-			"Points" + SEP + "Bonus" + SEP + "Sum" + SEP + 
-			"Previous" + SEP + "Current" + SEP + "Standing";
-		if (myLogPrintStream != null) myLogPrintStream.println(s);
-				
-		for (QuizTeam qt : QuizTeam.getSortedTeams()) {
-			if (qt != null) {
-				QuizBoxAddress addr = qt.getAddr();
-				String addrStr = addr.toShortString();
-				String name = translateName(qt.getTeamName());
-				double cur = calcRealNormalPoints(qt);
-				double bonus = calcRealBonusPoints(qt, 0);
-				double sum = cur+bonus;
-				double total = qt.getTotalPoints();
-				double prev = total - sum;
-				int cnt = qt.getCorrectSpeedCount();
-				String answer = translateAnswer(qt.getCurrentAnswer());
-				int place = qt.getCurrentPlacing();
-				int standing = qt.getStanding();
-				
-				String cstr = QuizzingHelper.formatLongPoints(cur);
-				String bstr = QuizzingHelper.formatLongPoints(bonus);
-				String sstr = QuizzingHelper.formatLongPoints(sum);
-				String tstr = QuizzingHelper.formatLongPoints(total);
-				String pstr = QuizzingHelper.formatLongPoints(prev);
-				String str = "RESULTS" + SEP + questionNum + 
-					SEP + qt.getBoxNumber() + SEP + "0x" + addrStr + SEP + name + 
-					SEP + cnt + SEP + answer + SEP + place +
-					SEP + cstr + SEP + bstr + SEP + sstr +
-					SEP + pstr + SEP + tstr + SEP + standing;
-				if (myLogPrintStream != null) myLogPrintStream.println(str);
-			}
+		QuizzingConfig config = myProps.getConfig();
+		String fname = config.getResultsFile();
+		boolean isExtended = config.getUseExtendedFormatRecording();
+		Writer results = null;
+		try {
+			results = new BufferedWriter(new FileWriter(fname));
+		} catch (IOException e) {
+			log.warn("Results file not found: " + fname);
 		}
-		if (myLogPrintStream != null) myLogPrintStream.flush();
 		
-		publishResultsToFile();
-	}
-	
-	private void publishResultsToFile() {
 		try {
-			String fname = myProps.getResultsFile();
-			File f = new File(fname);
-			PrintStream ps = new PrintStream(f);
-			
-			String title = translateName(myProps.getQuizTitle());
-			int questnum = getQuestionNumber();
-			String date = getDateString();
-			String time = getTimeString();
-			String header = "# " + "Box" + SEP + "Team" + SEP + "Score";
-			if (myProps.getUseExtendedFormatRecording()) {
-				header += SEP + "Place" + SEP + "SpCnt";
+			if (myLogPrintStream != null) {
+				myResultsWriter.writeSummary(myLogPrintStream, myQuestionNumber, 
+					translateQuestionType(myQuestionType), translateAnswer(myAnswer), myPoints);
 			}
-			header += SEP + title + SEP + "Question #: " + SEP + questnum + SEP + date + SEP + time;
-			ps.println(header);
-			
-			for (QuizTeam qt : QuizTeam.getSortedTeams()) {
-				if (qt != null) {
-					int box = qt.getBoxNumber();
-					String addrStr = box + "_0x" + qt.getAddr().toShortString();
-					String name = translateName(qt.getTeamName());
-					double score = fixDouble(qt.getTotalPoints());
-					String scorestr = QuizzingHelper.formatPoints(score);
-					String str = addrStr + SEP + name + SEP + scorestr;
-					if (myProps.getUseExtendedFormatRecording()) {
-						int quizOutCnt = qt.getCorrectSpeedCount();
-						int standing = qt.getStanding();
-						str += SEP + standing + SEP + quizOutCnt;
-					}
-					ps.println(str);
+			if (results != null) {
+				myResultsWriter.writeResultsHeader(results, config.getQuizTitle(), 
+					getQuestionNumber(), getDateString(), getTimeString(), isExtended);
+			}
+			myResultsWriter.writeTeams(myLogPrintStream, results, getPlacementSnapshot(),
+				myQuestionNumber, myPoints, myQuizoutBonus, isExtended);
+		} catch (IOException e) {
+			log.warn("IO problem writing results: " + fname, e);
+		} finally {
+			if (myLogPrintStream != null) myLogPrintStream.flush();
+			if (results != null) {
+				try {
+					results.close();
+				} catch (IOException e) {
+					log.warn("IO problem closing results file: " + fname, e);
 				}
 			}
-			ps.flush();
-			ps.close();
-		} catch (FileNotFoundException fnfex) {
-			log.warn("Results file not found: " + myProps.getResultsFile());
-		}		
+		}
 	}
 	
 	protected void clearResultsFile() {
@@ -612,8 +635,7 @@ public class QuizzingControlManager implements QuizConstants {
 	}
 	
 	public String translateName(String s) {
-		String t = s.replaceAll(",", "_");
-		return t;
+		return ResultsWriter.escape(s);
 	}
 	
 	public String translateQuestionType(int n) {
@@ -624,10 +646,7 @@ public class QuizzingControlManager implements QuizConstants {
 	
 	
 	public String translateAnswer(int n) {
-		if (n == A_BTN) return A_STR;
-		if (n == B_BTN) return B_STR;
-		if (n == C_BTN) return C_STR;
-		return N_STR;
+		return ResultsWriter.translateAnswer(n);
 	}
 	
 	private String translateAnswerND(int r) {
@@ -640,11 +659,6 @@ public class QuizzingControlManager implements QuizConstants {
 		return r;
 	}
 	
-	public static final double fixDouble(Double d) {
-		double r = (d==null)?0.0:d;
-		return r;
-	}
-	
 		
 	public String getDateString() {
 		Date date = new Date(System.currentTimeMillis());
@@ -50,15 +50,18 @@ public class QuizzingHelper implements QuizConstants {
 	public static QuizMessage TEST_CLEAR = QuizMessage.createTestClearRequest();
 	
 	private QuizzingConnection myQuizConnection;
-	private int myPlaceCount;
 	private int myResultsCounter;
-	private int myConnectionTimeout;
+	private volatile int myConnectionTimeout;
 	
 	public QuizzingHelper(QuizzingProperties props, QuizzingConnection qc) {
 		myQuizConnection = qc;
-		myPlaceCount = 0;
 		myResultsCounter = 1;
 		myConnectionTimeout = props.getConnectionTimeout();
+		props.addConfigChangeListener(new ConfigChangeListener() {
+			public void configChanged(QuizzingConfig old, QuizzingConfig config, Set<String> changed) {
+				myConnectionTimeout = config.getConnectionTimeout();
+			}
+		});
 	}
 	
 	public void reset() {
@@ -118,22 +121,14 @@ public class QuizzingHelper implements QuizConstants {
 	public void close() {
 		myQuizConnection.close();
 	}
+	
+	public void setLowLatency(boolean isLowLatency) {
+		myQuizConnection.setLowLatency(isLowLatency);
+	}
 
 	public void updateConnectionStatus() {
 		long cur = System.currentTimeMillis();
-		for (QuizBoxAddress addr : QuizBoxData.keySet()) {
-			Long cTime = QuizBoxData.getQuizBoxData(addr).getConnectionTime();
-			if (cTime != null) {
-				long diff = cur - cTime;
-				if (diff > myConnectionTimeout) {
-					setConnectStatusValue(addr, NOT_CONNECTED_STATUS);
-				} else {
-					setConnectStatusValue(addr, CONNECTED_STATUS);						
-				}
-			} else {
-				setConnectStatusValue(addr, NOT_CONNECTED_STATUS);
-			}
-		}		
+		QuizBoxData.getRegistry().updateConnectionStatus(cur, myConnectionTimeout);
 	}
 
 	public String getBtnString(QuizBoxAddress addr) {
@@ -143,25 +138,33 @@ public class QuizzingHelper implements QuizConstants {
 	}
 	
 	public int getPlaceCount() {
-		return myPlaceCount;
+		return QuizBoxData.getRegistry().getPlacements().getSnapshot().size();
 	}
 	
 	public void resetPlaces() {
-		myPlaceCount = 0;
-		for (QuizBoxData qbd :  QuizBoxData.getValues()) {
-			qbd.setPlacing(0);
-		}
+		QuizBoxData.getRegistry().clearPlacings();
 	}
 
 	public int updatePlace(QuizBoxAddress addr) {
+		return updatePlace(addr, System.nanoTime());
+	}
+	
+	/**
+	 * Places the box by when its button press arrived, see PlacementEngine.place().
+	 * Safe to call from the listener and processing threads at the same time.
+	 * 
+	 * @param addr
+	 * @param readTime the System.nanoTime() the press was read from the device
+	 * @return the place, or zero if the box has no button selected
+	 */
+	public int updatePlace(QuizBoxAddress addr, long readTime) {
 		int place = 0;
 		QuizBoxData qbd = QuizBoxData.getQuizBoxData(addr);
 		if (qbd != null) {
 			int p = qbd.getPlacing();
 			if (p <= 0) {
 				if (qbd.getButtonState() != NO_BTN) {
-					place = ++myPlaceCount;
-					qbd.setPlacing(place);
+					place = QuizBoxData.getRegistry().placeByTime(qbd.getSlot(), readTime);
 				}
 			} else {
 				place = p;
@@ -274,17 +277,6 @@ public class QuizzingHelper implements QuizConstants {
 	    return results;
 	}
 	
-	public static String formatPoints(double points) {
-		String s = String.format("%5.1f", points);
-		if (s.endsWith(".0")) s = s.substring(0, s.length()-2).trim();
-		return s;
-	}
-	
-	public static String formatLongPoints(double points) {
-		String s = String.format("%6.2f", points).trim();
-		return s;
-	}
-	
 	
 	private static Clip ourBeepClip = null;
     public static synchronized void setupBeep(final String filename) {
@@ -376,32 +368,5 @@ public class QuizzingHelper implements QuizConstants {
 		} finally {
 		}
     }
-    
-    // Fills in the standing field (1st, 2nd, 3rd, etc)
-    public static void fillTeamStandings(Set<QuizTeam> teams) {
-   		for (QuizTeam qt : teams) {
-   			if (qt != null) qt.setStanding(0);
-   		}
-   		int next = 1;
-   		int cur = 0;
-    	while (next != cur) {
-    		cur = next;
-    		double best = -999.0;
-    		for (QuizTeam qt : teams) {
-    			if (qt != null && qt.getStanding() == 0) {
-    				double d = qt.getTotalPoints();
-    				if (d > best) {
-    					best = d;
-    				}
-    			}
-    		}
-    		for (QuizTeam qt : teams) {
-    			if (qt != null && qt.getTotalPoints() == best) {
-    				qt.setStanding(cur);
-    				next++;
-    			}
-    		}
-    	}
-    }
 }
 
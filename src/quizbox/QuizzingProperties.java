@@ -10,13 +10,17 @@ package quizbox;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
+import quizbox.data.Points;
 import quizbox.data.QuizBoxAddress;
 import quizbox.data.QuizConstants;
 import quizbox.data.QuizTeam;
@@ -27,48 +31,56 @@ public class QuizzingProperties implements QuizConstants {
 
 	private static final String PROP_FNAME = "quizzing.properties";
 
-	private static final String COMPORT_PROP = "quizzing.connect.port";
-	private static final String BAUD_PROP = "quizzing.connect.baud";
-	private static final String CONNECT_TIMEOUT_PROP = "quizzing.connect.connectionTimeout";
+	static final String COMPORT_PROP = "quizzing.connect.port";
+	static final String BAUD_PROP = "quizzing.connect.baud";
+	static final String CONNECT_TIMEOUT_PROP = "quizzing.connect.connectionTimeout";
+	static final String DISCOVER_PROP = "quizzing.connect.discoverPort";
+	static final String PORT_CACHE_PROP = "quizzing.connect.portCacheFile";
+	static final String PROBE_TIMEOUT_PROP = "quizzing.connect.probeTimeout";
 	
-	private static final String ADDR_PROP = "quizzing.remote.addresses";
-	private static final String PANID_PROP = "quizzing.remote.panid";
-	private static final String CHANNEL_PROP = "quizzing.remote.channel";
-
-	private static final String TEAM_PROP = "quizzing.team";
-
-	private static final String IN_FILE_PROP = "quizzing.control.inputfile";
-	private static final String LOG_FILE_PROP = "quizzing.control.logfile";
-	private static final String RESULTS_FILE_PROP = "quizzing.control.resultsfile";
-	private static final String USE_IN_FILE_PROP = "quizzing.control.useInputFile";
-	private static final String AUTO_SELECT_PROP = "quizzing.control.autoSelectQuestionType";
-	private static final String MC_ON_PROP = "quizzing.control.multChoiceOn";
-	private static final String SP_ON_PROP = "quizzing.control.speedOn";
-	private static final String SP_SCORING_CORRECT_PROP = "quizzing.control.speedScoringCorrect";
-	private static final String SP_SCORING_INCORRECT_PROP = "quizzing.control.speedScoringIncorrect";
-	private static final String BONUS_POINTS_PROP = "quizzing.control.BonusPoints";
-	private static final String MC_POINTS_LIST_PROP = "quizzing.control.multChoicePointsList";
-	private static final String SP_POINTS_LIST_PROP = "quizzing.control.speedPointsList";
-	private static final String ADV_ON_CLEAR_PROP = "quizzing.control.advanceQuestionNumberOnClear";
-	private static final String QUIZ_TITLE_PROP = "quizzing.control.quizTitle";
-	private static final String BEEP_ENABLED_PROP = "quizzing.control.isBeepEnabled";
-	private static final String BEEP_FILENAME_PROP = "quizzing.control.beepFilename";
-	private static final String START_QUESTION_NUM_PROP = "quizzing.control.startingQuestionNumber";
-	private static final String QUIZ_OUT_COUNT_PROP = "quizzing.control.quizoutCount";
-	private static final String EXT_FORMAT_REC_PROP = "quizzing.control.extendedFormat";
-	private static final String PROCESSING_SLEEP_PROP = "quizzing.control.processingSleep";
-
-	private static final String DISPLAY_FONTSIZE_PROP = "quizzing.display.fontsize";
-	private static final String DISPLAY_SPEED_PLACE_PROP = "quizzing.display.speedPlace";
-	private static final String DISPLAY_QUESTION_NUM_PROP = "quizzing.display.questionNumber";
-	private static final String DISPLAY_QUESTION_TYPE_PROP = "quizzing.display.questionType";
-	private static final String DISPLAY_TITLE_PROP = "quizzing.display.questionTitle";
-	private static final String DISPLAY_ANNOUNCEMENT_PROP = "quizzing.display.announcement";
-	private static final String DISPLAY_ANNOUNCE_AT_PROP = "quizzing.display.announceAtQuestionNumber";
-	private static final String DISPLAY_COUNT_MC_PROP = "quizzing.display.showCountMultChoice";
-	private static final String DISPLAY_COUNT_SP_PROP = "quizzing.display.showCountSpeed";
-
-	private Properties myProps;
+	static final String ADDR_PROP = "quizzing.remote.addresses";
+	static final String PANID_PROP = "quizzing.remote.panid";
+	static final String CHANNEL_PROP = "quizzing.remote.channel";
+
+	static final String TEAM_PROP = "quizzing.team";
+
+	static final String IN_FILE_PROP = "quizzing.control.inputfile";
+	static final String LOG_FILE_PROP = "quizzing.control.logfile";
+	static final String RESULTS_FILE_PROP = "quizzing.control.resultsfile";
+	static final String USE_IN_FILE_PROP = "quizzing.control.useInputFile";
+	static final String AUTO_SELECT_PROP = "quizzing.control.autoSelectQuestionType";
+	static final String MC_ON_PROP = "quizzing.control.multChoiceOn";
+	static final String SP_ON_PROP = "quizzing.control.speedOn";
+	static final String SP_SCORING_CORRECT_PROP = "quizzing.control.speedScoringCorrect";
+	static final String SP_SCORING_INCORRECT_PROP = "quizzing.control.speedScoringIncorrect";
+	static final String BONUS_POINTS_PROP = "quizzing.control.BonusPoints";
+	static final String MC_POINTS_LIST_PROP = "quizzing.control.multChoicePointsList";
+	static final String SP_POINTS_LIST_PROP = "quizzing.control.speedPointsList";
+	static final String ADV_ON_CLEAR_PROP = "quizzing.control.advanceQuestionNumberOnClear";
+	static final String QUIZ_TITLE_PROP = "quizzing.control.quizTitle";
+	static final String BEEP_ENABLED_PROP = "quizzing.control.isBeepEnabled";
+	static final String BEEP_FILENAME_PROP = "quizzing.control.beepFilename";
+	static final String START_QUESTION_NUM_PROP = "quizzing.control.startingQuestionNumber";
+	static final String QUIZ_OUT_COUNT_PROP = "quizzing.control.quizoutCount";
+	static final String EXT_FORMAT_REC_PROP = "quizzing.control.extendedFormat";
+	static final String PROCESSING_SLEEP_PROP = "quizzing.control.processingSleep";
+	static final String TIE_WINDOW_PROP = "quizzing.control.tieWindow";
+
+	static final String DISPLAY_FONTSIZE_PROP = "quizzing.display.fontsize";
+	static final String DISPLAY_SPEED_PLACE_PROP = "quizzing.display.speedPlace";
+	static final String DISPLAY_QUESTION_NUM_PROP = "quizzing.display.questionNumber";
+	static final String DISPLAY_QUESTION_TYPE_PROP = "quizzing.display.questionType";
+	static final String DISPLAY_TITLE_PROP = "quizzing.display.questionTitle";
+	static final String DISPLAY_ANNOUNCEMENT_PROP = "quizzing.display.announcement";
+	static final String DISPLAY_ANNOUNCE_AT_PROP = "quizzing.display.announceAtQuestionNumber";
+	static final String DISPLAY_COUNT_MC_PROP = "quizzing.display.showCountMultChoice";
+	static final String DISPLAY_COUNT_SP_PROP = "quizzing.display.showCountSpeed";
+
+	private volatile Properties myProps;
+	private volatile QuizzingConfig myConfig;
+	private String myFileName;
+	private final AtomicReference<QuizzingProperties> myPending;
+	private final List<ConfigChangeListener> myListeners;
 	private boolean myIsTeamLoadRequired;
 
 	public QuizzingProperties() {
@@ -77,10 +89,22 @@ public class QuizzingProperties implements QuizConstants {
 
 	public QuizzingProperties(String fname) {
 		myProps = null;
+		myPending = new AtomicReference<QuizzingProperties>();
+		myListeners = new CopyOnWriteArrayList<ConfigChangeListener>();
 		myIsTeamLoadRequired = true;
 		load(fname);
 	}
 
+	/**
+	 * Holds a reloaded file until it is applied
+	 */
+	private QuizzingProperties(Properties props) {
+		myProps = props;
+		myPending = null;
+		myListeners = null;
+		myConfig = new QuizzingConfig(this);
+	}
+
 	public void load() {
 		load(PROP_FNAME);
 	}
@@ -89,13 +113,103 @@ public class QuizzingProperties implements QuizConstants {
 		if (myProps == null) {
 			myProps = new Properties();
 		}
+		myFileName = fname;
 
 		try {
 			// try retrieve data from file
-			myProps.load(new FileInputStream(fname));
+			readFile(myProps, fname);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		myConfig = new QuizzingConfig(this);
+	}
+
+	private static void readFile(Properties props, String fname) throws IOException {
+		FileInputStream in = new FileInputStream(fname);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public String getFileName() {
+		return myFileName;
+	}
+
+	/**
+	 * Reads the file again into a new config, which is held until 
+	 * applyPendingConfig() is called.  If the file can not be read, or has
+	 * a bad multiplier, the current settings are kept.
+	 *
+	 * @return false if the file could not be read or was rejected
+	 */
+	public boolean stageReload() {
+		Properties props = new Properties();
+		try {
+			readFile(props, myFileName);
+		} catch (IOException e) {
+			log.warn("Unable to reload " + myFileName + ", keeping the current settings: " + e.getMessage());
+			return false;
+		}
+		try {
+			myPending.set(new QuizzingProperties(props));
+		} catch (IllegalArgumentException e) {
+			log.error("Unable to reload " + myFileName + ", keeping the current settings: " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	public boolean hasPendingConfig() {
+		return myPending.get() != null;
+	}
+
+	/**
+	 * Swaps in the config staged by stageReload(), if there is one, and tells
+	 * the listeners what changed.  Call this between questions.  Changes to 
+	 * the connection settings (RECONNECT_KEYS) and to settings that are only
+	 * read at startup (RESTART_KEYS) are reported but have no effect.
+	 *
+	 * @return the changed property names, empty if nothing was applied
+	 */
+	public Set<String> applyPendingConfig() {
+		QuizzingProperties pending = myPending.getAndSet(null);
+		if (pending == null) return Collections.emptySet();
+		
+		QuizzingConfig old = myConfig;
+		Set<String> changed = pending.myConfig.getChangedKeys(old);
+		myProps = pending.myProps;
+		myConfig = pending.myConfig;
+		if (changed.isEmpty()) return changed;
+
+		log.info("Reloaded " + myFileName + ", changed: " + changed);
+		for (String key : changed) {
+			if (QuizzingConfig.RECONNECT_KEYS.contains(key)) {
+				log.warn("Changed " + key + " is not used until the connection is opened again");
+			} else if (QuizzingConfig.RESTART_KEYS.contains(key)) {
+				log.warn("Changed " + key + " is not used until the program is restarted");
+			}
+		}
+		for (ConfigChangeListener l : myListeners) {
+			l.configChanged(old, myConfig, changed);
+		}
+		return changed;
+	}
+
+	public void addConfigChangeListener(ConfigChangeListener l) {
+		myListeners.add(l);
+	}
+
+	public void removeConfigChangeListener(ConfigChangeListener l) {
+		myListeners.remove(l);
+	}
+
+	/**
+	 * @return the settings as they were when the file was last loaded
+	 */
+	public QuizzingConfig getConfig() {
+		return myConfig;
 	}
 
 	public String getString(String propName) {
@@ -136,6 +250,7 @@ public class QuizzingProperties implements QuizConstants {
 	public double getDouble(String propName, double def) {
 		double d = def;
 		String s = myProps.getProperty(propName);
+		if (s == null) return def;
 		try {
 			d = Double.parseDouble(s);
 		} catch (NumberFormatException e) {
@@ -156,144 +271,160 @@ public class QuizzingProperties implements QuizConstants {
 	}
 
 	public String getInputFile() {
-		return getString(IN_FILE_PROP);
+		return myConfig.getInputFile();
 	}
 
 	public String getLogFile() {
-		return getString(LOG_FILE_PROP);
+		return myConfig.getLogFile();
 	}
 
 	public String getResultsFile() {
-		return getString(RESULTS_FILE_PROP);
+		return myConfig.getResultsFile();
 	}
 
 	public String getComPort() {
-		return getString(COMPORT_PROP);
+		return myConfig.getComPort();
 	}
 
 	public int getBaud() {
-		return getInt(BAUD_PROP, 0);
+		return myConfig.getBaud();
+	}
+
+	/**
+	 * @return true to search the ports for the base station; always true
+	 *   if the port is set to "auto"
+	 */
+	public boolean getIsPortDiscovery() {
+		return myConfig.getIsPortDiscovery();
+	}
+
+	public String getPortCacheFile() {
+		return myConfig.getPortCacheFile();
+	}
+
+	public int getProbeTimeout() {
+		return myConfig.getProbeTimeout();
 	}
 
 	public int getFontsize() {
-		return getInt(DISPLAY_FONTSIZE_PROP, 12);
+		return myConfig.getFontsize();
 	}
 
 	public boolean getIsAutoSelectQuestionType() {
-		return getBool(AUTO_SELECT_PROP, false);
+		return myConfig.getIsAutoSelectQuestionType();
 	}
 
 	public boolean getMultChoiceSelectionEnabled() {
-		return getBool(MC_ON_PROP, true);
+		return myConfig.getMultChoiceSelectionEnabled();
 	}
 
 	public boolean getSpeedSelectionEnabled() {
-		return getBool(SP_ON_PROP, true);
+		return myConfig.getSpeedSelectionEnabled();
 	}
 
 	public double getSpeedScoringCorrect(int i) {
-		return parseDoubleArray(SP_SCORING_CORRECT_PROP, i, 0.0);
+		return Points.toDouble(myConfig.getSpeedScoringCorrect(i));
 	}
 
 	public double getSpeedScoringIncorrect(int i) {
-		return parseDoubleArray(SP_SCORING_INCORRECT_PROP, i, 0.0);
+		return Points.toDouble(myConfig.getSpeedScoringIncorrect(i));
 	}
 
 	public int getBonusPoints() {
-		return getInt(BONUS_POINTS_PROP, 0);
+		return myConfig.getBonusPoints();
 	}
 
 	public boolean getAdvanceOnClear() {
-		return getBool(ADV_ON_CLEAR_PROP, false);
+		return myConfig.getAdvanceOnClear();
 	}
 
 	public boolean getDisplaySpeedPlace() {
-		return getBool(DISPLAY_SPEED_PLACE_PROP, false);
+		return myConfig.getDisplaySpeedPlace();
 	}
 
 	public boolean getDisplayCountSpeed() {
-		return getBool(DISPLAY_COUNT_SP_PROP, false);
+		return myConfig.getDisplayCountSpeed();
 	}
 
 	public boolean getDisplayCountMultChoice() {
-		return getBool(DISPLAY_COUNT_MC_PROP, false);
+		return myConfig.getDisplayCountMultChoice();
 	}
 
 	public String getDisplayAnnouncement() {
-		return getString(DISPLAY_ANNOUNCEMENT_PROP, "");
+		return myConfig.getDisplayAnnouncement();
 	}
 
 	public int getDisplayAnnounceAt() {
-		return getInt(DISPLAY_ANNOUNCE_AT_PROP, 0);
+		return myConfig.getDisplayAnnounceAt();
 	}
 
 	public boolean getDisplayTitle() {
-		return getBool(DISPLAY_TITLE_PROP, false);
+		return myConfig.getDisplayTitle();
 	}
 
 	public boolean getDisplayQuestionType() {
-		return getBool(DISPLAY_QUESTION_TYPE_PROP, false);
+		return myConfig.getDisplayQuestionType();
 	}
 
 	public boolean getDisplayQuestionNumber() {
-		return getBool(DISPLAY_QUESTION_NUM_PROP, false);
+		return myConfig.getDisplayQuestionNumber();
 	}
 
 	public String getQuizTitle() {
-		return getString(QUIZ_TITLE_PROP);
+		return myConfig.getQuizTitle();
 	}
 
 	public boolean getIsBeepEnabled() {
-		return getBool(BEEP_ENABLED_PROP, false);
+		return myConfig.getIsBeepEnabled();
 	}
 
 	public String getBeepFilename() {
-		return getString(BEEP_FILENAME_PROP, "beep.wav");
+		return myConfig.getBeepFilename();
 	}
 
 	public int getStartingQuestionNumber() {
-		return getInt(START_QUESTION_NUM_PROP, 0);
+		return myConfig.getStartingQuestionNumber();
 	}
 
 	public int getQuizOutCount() {
-		return getInt(QUIZ_OUT_COUNT_PROP, 3);
+		return myConfig.getQuizOutCount();
 	}
 
 	public boolean getUseExtendedFormatRecording() {
-		return getBool(EXT_FORMAT_REC_PROP, false);
+		return myConfig.getUseExtendedFormatRecording();
 	}
-	
+
 	public int getProcessingSleepTime(int def) {
-		return getInt(PROCESSING_SLEEP_PROP, def);
+		return myConfig.getProcessingSleepTime(def);
+	}
+
+	/**
+	 * @return speed presses closer together than this many msec are shown as ties
+	 */
+	public double getTieWindow() {
+		return myConfig.getTieWindow();
 	}
-	
 
 	public List<Integer> getMultChoicePointsList() {
-		List<Integer> list = parseIntegerList(MC_POINTS_LIST_PROP);
-		return list;
+		return myConfig.getMultChoicePointsList();
 	}
 
 	public List<Integer> getSpeedPointsList() {
-		List<Integer> list = parseIntegerList(SP_POINTS_LIST_PROP);
-		return list;
+		return myConfig.getSpeedPointsList();
 	}
-		
+
 	public int getConnectionTimeout() {
-		int i = getInt(CONNECT_TIMEOUT_PROP, CONNECTION_TIMEOUT_MSEC);
-		return i;
+		return myConfig.getConnectionTimeout();
 	}
 
-	
 	public int getPanID() {
-		int i = getInt(PANID_PROP, -1);
-		return i;
+		return myConfig.getPanID();
 	}
-	
+
 	public int getChannel() {
-		int i = getInt(CHANNEL_PROP, -1);
-		return i;
+		return myConfig.getChannel();
 	}
-		
+
 	public Map<String, QuizBoxAddress> getAllAddressesMap() {
 		Map<String, QuizBoxAddress> map = new HashMap<String, QuizBoxAddress>();
 		for (int i = 0; i < 100; i++) {
@@ -367,8 +498,7 @@ public class QuizzingProperties implements QuizConstants {
 	}
 
 	public boolean useInputFile() {
-		Boolean b = getBool(USE_IN_FILE_PROP, false);
-		return b;
+		return myConfig.useInputFile();
 	}
 
 	public synchronized void loadTeams() {
@@ -0,0 +1,174 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import quizbox.data.PlacementSnapshot;
+import quizbox.data.Points;
+import quizbox.data.QuizConstants;
+import quizbox.data.QuizTeam;
+import quizbox.util.RowBuffer;
+
+/**
+ * Writes the rows for a recorded question to the log and to the results 
+ * file, in one pass over the teams.  Each row is built in a char buffer 
+ * that is reused, and the team columns that never change (box, address,
+ * name) are escaped and joined once, when the roster is loaded.
+ *
+ * @author Ted Meyers
+ * @since August 2012
+ */
+public class ResultsWriter implements QuizConstants {
+	private static final String LOG_SUMMARY_HEADER = "# MSG" + SEP + "Question#" + SEP +
+		"Type" + SEP + "-" + SEP + "-" + SEP + "-" + SEP + "Answer" + SEP + "-" + SEP + "Points";
+	private static final String LOG_RESULTS_HEADER = "# MSG" + SEP + "Question#" + SEP +
+		"Box#" + SEP + "Address" + SEP + "Name" + SEP + "SpCnt" + SEP + 
+		"Answer" + SEP + "Place" + SEP + 
+		"Points" + SEP + "Bonus" + SEP + "Sum" + SEP + 
+		"Previous" + SEP + "Current" + SEP + "Standing" + SEP + 
+		// added last, so the older columns keep their positions in the log
+		"Gap" + SEP + "Tie";
+	private static final String DASHES = SEP + "-" + SEP + "-" + SEP + "-" + SEP;
+	
+	private final RowBuffer myLogRow;
+	private final RowBuffer myResultsRow;
+	// by QuizBoxData slot
+	private String[] myLogColumns;			// "box, 0xaddr, name"
+	private String[] myResultsColumns;		// "box_0xaddr, name"
+	
+	public ResultsWriter() {
+		myLogRow = new RowBuffer(256);
+		myResultsRow = new RowBuffer(128);
+		myLogColumns = new String[0];
+		myResultsColumns = new String[0];
+		loadRoster();
+	}
+	
+	/**
+	 * Escapes and joins the fixed columns of every team; call again if teams are added
+	 */
+	public void loadRoster() {
+		for (QuizTeam qt : QuizTeam.getSortedTeams()) {
+			if (qt != null) addTeam(qt);
+		}
+	}
+	
+	private void addTeam(QuizTeam qt) {
+		int slot = qt.getQuizBoxData().getSlot();
+		if (slot >= myLogColumns.length) {
+			int n = Math.max(slot+1, myLogColumns.length*2);
+			myLogColumns = Arrays.copyOf(myLogColumns, n);
+			myResultsColumns = Arrays.copyOf(myResultsColumns, n);
+		}
+		int box = qt.getBoxNumber();
+		String addr = "0x" + qt.getAddr().toShortString();
+		String name = escape(qt.getTeamName());
+		myLogColumns[slot] = box + SEP + addr + SEP + name;
+		myResultsColumns[slot] = box + "_" + addr + SEP + name;
+	}
+	
+	/**
+	 * Commas would split a column, so they are replaced
+	 */
+	public static String escape(String s) {
+		return s.replace(',', '_');
+	}
+	
+	public static String translateAnswer(int n) {
+		if (n == A_BTN) return A_STR;
+		if (n == B_BTN) return B_STR;
+		if (n == C_BTN) return C_STR;
+		return N_STR;
+	}
+	
+	public void writeSummary(Writer logOut, int questionNum, String questionType, 
+			String answer, int points) throws IOException {
+		RowBuffer row = myLogRow.clear();
+		row.append('#').newLine();
+		row.append(LOG_SUMMARY_HEADER).newLine();
+		row.append("SUMMARY").append(SEP).append(questionNum).append(SEP).append(questionType)
+			.append(DASHES).append(answer).append(SEP).append('-').append(SEP).append(points).newLine();
+		row.append(LOG_RESULTS_HEADER).newLine();
+		row.writeTo(logOut);
+	}
+	
+	public void writeResultsHeader(Writer resultsOut, String title, int questionNum, 
+			String date, String time, boolean isExtended) throws IOException {
+		RowBuffer row = myResultsRow.clear();
+		row.append("# Box").append(SEP).append("Team").append(SEP).append("Score");
+		if (isExtended) {
+			row.append(SEP).append("Place").append(SEP).append("SpCnt");
+		}
+		row.append(SEP).append(escape(title)).append(SEP).append("Question #: ").append(SEP)
+			.append(questionNum).append(SEP).append(date).append(SEP).append(time).newLine();
+		row.writeTo(resultsOut);
+	}
+	
+	/**
+	 * Writes a RESULTS row to the log and a score row to the results file
+	 * for each team.  Either writer may be null.
+	 *
+	 * @param points the full points for the question
+	 * @param bonusPoints the full points for a quiz out
+	 */
+	public void writeTeams(Writer logOut, Writer resultsOut, PlacementSnapshot places,
+			int questionNum, int points, int bonusPoints, boolean isExtended) throws IOException {
+		for (QuizTeam qt : QuizTeam.getSortedTeams()) {
+			if (qt == null) continue;
+			int slot = qt.getQuizBoxData().getSlot();
+			if (slot >= myLogColumns.length || myLogColumns[slot] == null) addTeam(qt);
+			long total = qt.getTotalPoints();
+			int cnt = qt.getCorrectSpeedCount();
+			int standing = qt.getStanding();
+			
+			if (logOut != null) {
+				long cur = (long)qt.getCurrentNormalPoints() * points;
+				long bonus = (long)qt.getCurrentBonusPoints() * bonusPoints;
+				long sum = cur + bonus;
+				long gap = places.getGap(slot);
+				
+				RowBuffer row = myLogRow.clear();
+				row.append("RESULTS").append(SEP).append(questionNum).append(SEP)
+					.append(myLogColumns[slot]).append(SEP).append(cnt).append(SEP)
+					.append(translateAnswer(qt.getCurrentAnswer())).append(SEP)
+					.append(places.getPlace(slot)).append(SEP);
+				appendPoints(row, cur).append(SEP);
+				appendPoints(row, bonus).append(SEP);
+				appendPoints(row, sum).append(SEP);
+				appendPoints(row, total - sum).append(SEP);
+				appendPoints(row, total).append(SEP);
+				row.append(standing).append(SEP);
+				// msec, rounded to hundredths
+				if (gap != PlacementSnapshot.NO_GAP) row.appendHundredths((gap + 5000) / 10000);
+				row.append(SEP);
+				if (places.isTied(slot)) row.append('T');
+				row.newLine();
+				row.writeTo(logOut);
+			}
+			
+			if (resultsOut != null) {
+				RowBuffer row = myResultsRow.clear();
+				row.append(myResultsColumns[slot]).append(SEP);
+				row.setLength(Points.format(total, row.reserve(Points.MAX_CHARS), row.length()));
+				if (isExtended) {
+					row.append(SEP).append(standing).append(SEP).append(cnt);
+				}
+				row.newLine();
+				row.writeTo(resultsOut);
+			}
+		}
+	}
+	
+	private static RowBuffer appendPoints(RowBuffer row, long points) {
+		row.setLength(Points.formatLong(points, row.reserve(Points.MAX_CHARS), row.length()));
+		return row;
+	}
+}
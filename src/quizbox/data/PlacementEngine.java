@@ -0,0 +1,91 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.data;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gives out the speed placings.  Both the listener thread and the GUI 
+ * processing loop place boxes, so each change makes a new snapshot and
+ * swaps it in with a compare and set; if another thread got there first 
+ * the change is made again on top of its snapshot.  A box is placed by 
+ * the time its press was read, not by the order the calls are made in.
+ */
+public class PlacementEngine {
+	public static final long DEFAULT_TIE_WINDOW_NSEC = 5000000L;
+	
+	private final AtomicReference<PlacementSnapshot> myCurrent;
+	private volatile long myTieWindow;
+	
+	public PlacementEngine() {
+		myTieWindow = DEFAULT_TIE_WINDOW_NSEC;
+		myCurrent = new AtomicReference<PlacementSnapshot>(PlacementSnapshot.empty(0, myTieWindow));
+	}
+	
+	/**
+	 * @param nsec presses closer together than this are marked as ties; 
+	 *   zero to only mark presses at exactly the same time
+	 */
+	public void setTieWindow(long nsec) {
+		myTieWindow = nsec;
+	}
+	
+	public long getTieWindow() {
+		return myTieWindow;
+	}
+	
+	/**
+	 * @return the placings as they are now, they do not change after this
+	 */
+	public PlacementSnapshot getSnapshot() {
+		return myCurrent.get();
+	}
+	
+	/**
+	 * Places the box, boxes already placed with a later press time move 
+	 * down one place.
+	 * 
+	 * @param slot
+	 * @param pressTime the System.nanoTime() the press was read from the device
+	 * @return the place of the box; unchanged if it was already placed
+	 */
+	public int place(int slot, long pressTime) {
+		while (true) {
+			PlacementSnapshot cur = myCurrent.get();
+			int place = cur.getPlace(slot);
+			if (place > 0) return place;
+			PlacementSnapshot next = cur.with(slot, pressTime, myTieWindow);
+			if (myCurrent.compareAndSet(cur, next)) return next.getPlace(slot);
+		}
+	}
+	
+	/**
+	 * Takes the box out of the placings, the boxes after it move up one place
+	 */
+	public void remove(int slot) {
+		while (true) {
+			PlacementSnapshot cur = myCurrent.get();
+			PlacementSnapshot next = cur.without(slot);
+			if (next == cur || myCurrent.compareAndSet(cur, next)) return;
+		}
+	}
+	
+	/**
+	 * Clears all of the placings for the next question
+	 * 
+	 * @return the last snapshot of the question that ended
+	 */
+	public PlacementSnapshot reset() {
+		while (true) {
+			PlacementSnapshot cur = myCurrent.get();
+			if (myCurrent.compareAndSet(cur, PlacementSnapshot.empty(cur.getGeneration()+1, myTieWindow))) {
+				return cur;
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.data;
+
+import java.util.Arrays;
+
+/**
+ * The speed placings of one question at one moment.  Never changes once 
+ * made, so it can be read by any thread, and several boxes read from the 
+ * same snapshot always agree with each other.  Boxes are kept in order of
+ * press time; presses read at the same time keep the order they were placed in.
+ *
+ * The gap between each press and the one before it is worked out as boxes
+ * are placed; a place less than the tie window from the place before or 
+ * after it is tied.
+ */
+public final class PlacementSnapshot {
+	private static final int[] NO_SLOTS = new int[0];
+	private static final long[] NO_TIMES = new long[0];
+	public static final long NO_GAP = -1;
+	
+	private final int myGeneration;
+	private final long myTieWindow;
+	private final int[] mySlots;		// by place, first place first
+	private final long[] myTimes;		// press time of each of mySlots
+	private final long[] myGaps;		// nsec after the place before, NO_GAP for first
+	private final int[] myPlaceBySlot;	// 0 if not placed
+	
+	static PlacementSnapshot empty(int generation, long tieWindow) {
+		return new PlacementSnapshot(generation, tieWindow, NO_SLOTS, NO_TIMES, NO_TIMES);
+	}
+	
+	private PlacementSnapshot(int generation, long tieWindow, int[] slots, long[] times, long[] gaps) {
+		myGeneration = generation;
+		myTieWindow = tieWindow;
+		mySlots = slots;
+		myTimes = times;
+		myGaps = gaps;
+		int max = -1;
+		for (int slot : slots) max = Math.max(max, slot);
+		myPlaceBySlot = new int[max+1];
+		for (int i=0; i<slots.length; i++) {
+			myPlaceBySlot[slots[i]] = i+1;
+		}
+	}
+	
+	/**
+	 * @return which question this is for, it goes up by one each time the 
+	 *   placings are cleared
+	 */
+	public int getGeneration() {
+		return myGeneration;
+	}
+	
+	/**
+	 * @return presses closer together than this (nsec) are ties
+	 */
+	public long getTieWindow() {
+		return myTieWindow;
+	}
+	
+	/**
+	 * @return the number of boxes placed
+	 */
+	public int size() {
+		return mySlots.length;
+	}
+	
+	/**
+	 * @return the place of the box in the slot, or 0 if it is not placed
+	 */
+	public int getPlace(int slot) {
+		if (slot < 0 || slot >= myPlaceBySlot.length) return 0;
+		return myPlaceBySlot[slot];
+	}
+	
+	public int getPlace(QuizBoxData qbd) {
+		return (qbd == null) ? 0 : getPlace(qbd.getSlot());
+	}
+	
+	/**
+	 * @param place 1 for first place
+	 * @return the slot of the box in that place
+	 */
+	public int getSlotAt(int place) {
+		return mySlots[place-1];
+	}
+	
+	/**
+	 * @param place 1 for first place
+	 * @return the System.nanoTime() the press in that place was read
+	 */
+	public long getPressTimeAt(int place) {
+		return myTimes[place-1];
+	}
+	
+	/**
+	 * @return the press time of the box in the slot, or 0 if it is not placed
+	 */
+	public long getPressTime(int slot) {
+		int place = getPlace(slot);
+		return (place > 0) ? myTimes[place-1] : 0;
+	}
+	
+	/**
+	 * @return nsec between the box's press and the press of the place 
+	 *   before it; NO_GAP for first place or a box not placed
+	 */
+	public long getGap(int slot) {
+		int place = getPlace(slot);
+		return (place > 0) ? myGaps[place-1] : NO_GAP;
+	}
+	
+	/**
+	 * @return true if the box was pressed within the tie window of the 
+	 *   place before or after it
+	 */
+	public boolean isTied(int slot) {
+		int place = getPlace(slot);
+		if (place == 0) return false;
+		if (isTieGap(myGaps[place-1])) return true;
+		return place < myGaps.length && isTieGap(myGaps[place]);
+	}
+	
+	public boolean isTied(QuizBoxData qbd) {
+		return (qbd != null) && isTied(qbd.getSlot());
+	}
+	
+	private boolean isTieGap(long gap) {
+		return gap != NO_GAP && gap <= myTieWindow;
+	}
+	
+	/**
+	 * @return a copy with the box added in press time order
+	 */
+	PlacementSnapshot with(int slot, long pressTime, long tieWindow) {
+		int n = mySlots.length;
+		int i = n;
+		// Compare by difference, nanoTime values may wrap
+		while (i > 0 && myTimes[i-1] - pressTime > 0) i--;
+		int[] slots = new int[n+1];
+		long[] times = new long[n+1];
+		long[] gaps = new long[n+1];
+		System.arraycopy(mySlots, 0, slots, 0, i);
+		System.arraycopy(myTimes, 0, times, 0, i);
+		System.arraycopy(myGaps, 0, gaps, 0, i);
+		slots[i] = slot;
+		times[i] = pressTime;
+		System.arraycopy(mySlots, i, slots, i+1, n-i);
+		System.arraycopy(myTimes, i, times, i+1, n-i);
+		System.arraycopy(myGaps, i, gaps, i+1, n-i);
+		// Only the gaps on either side of the new press change
+		gaps[i] = (i > 0) ? times[i] - times[i-1] : NO_GAP;
+		if (i < n) gaps[i+1] = times[i+1] - times[i];
+		return new PlacementSnapshot(myGeneration, tieWindow, slots, times, gaps);
+	}
+	
+	/**
+	 * @return a copy without the box, the boxes after it move up one place
+	 */
+	PlacementSnapshot without(int slot) {
+		int place = getPlace(slot);
+		if (place == 0) return this;
+		int n = mySlots.length;
+		int[] slots = new int[n-1];
+		long[] times = new long[n-1];
+		long[] gaps = new long[n-1];
+		System.arraycopy(mySlots, 0, slots, 0, place-1);
+		System.arraycopy(myTimes, 0, times, 0, place-1);
+		System.arraycopy(myGaps, 0, gaps, 0, place-1);
+		System.arraycopy(mySlots, place, slots, place-1, n-place);
+		System.arraycopy(myTimes, place, times, place-1, n-place);
+		System.arraycopy(myGaps, place, gaps, place-1, n-place);
+		// The press after the removed one now follows the one before it
+		if (place-1 < n-1) gaps[place-1] = (place > 1) ? times[place-1] - times[place-2] : NO_GAP;
+		return new PlacementSnapshot(myGeneration, myTieWindow, slots, times, gaps);
+	}
+	
+	@Override
+	public String toString() {
+		return "Placings " + myGeneration + ": " + Arrays.toString(mySlots);
+	}
+}
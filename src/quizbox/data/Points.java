@@ -0,0 +1,141 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.data;
+
+/**
+ * Scores are kept as whole numbers of quarter points, so that adding them
+ * up is exact and tied totals compare equal.  The speed multipliers are 
+ * kept the same way, as quarters of the full points for a question, so a 
+ * multiplier times the question points is a whole number of quarter points.
+ *
+ * The format methods write the digits straight into a char array, which
+ * is much quicker than String.format().
+ *
+ * @author Ted Meyers
+ * @since August 2012
+ */
+public final class Points {
+	/** Quarter points */
+	public static final int SCALE = 4;
+	
+	private static final String[] QUARTERS = { "00", "25", "50", "75" };
+	// Tenths, rounded half up, as String.format("%.1f") does
+	private static final char[] TENTHS = { '0', '3', '5', '8' };
+	// Width of the old "%5.1f" format
+	private static final int SHORT_WIDTH = 5;
+	/** Enough for any points, with a sign and decimals */
+	public static final int MAX_CHARS = 24;
+	
+	private Points() {
+	}
+	
+	/**
+	 * @return the points rounded to the nearest quarter point
+	 */
+	public static long valueOf(double points) {
+		return Math.round(points * SCALE);
+	}
+	
+	public static double toDouble(long points) {
+		return points / (double)SCALE;
+	}
+	
+	/**
+	 * @return true if the points are not a whole number of quarter points
+	 */
+	public static boolean isRounded(double points) {
+		return valueOf(points) != points * SCALE;
+	}
+	
+	/**
+	 * Whole points are written without decimals ("20"), others with one
+	 * decimal, right aligned in five characters ("  2.5"), the same as
+	 * String.format("%5.1f") with a trailing ".0" removed.
+	 */
+	public static String format(long points) {
+		char[] buf = new char[MAX_CHARS];
+		int n = format(points, buf, 0);
+		return new String(buf, 0, n);
+	}
+	
+	/**
+	 * @return the offset after the last char written
+	 */
+	public static int format(long points, char[] buf, int off) {
+		int quarter = (int)Math.abs(points % SCALE);
+		if (quarter == 0) {
+			return writeWhole(points / SCALE, points < 0, buf, off);
+		}
+		int len = 2 + wholeLength(points);
+		for (int i=len; i<SHORT_WIDTH; i++) buf[off++] = ' ';
+		off = writeWhole(points / SCALE, points < 0, buf, off);
+		buf[off++] = '.';
+		buf[off++] = TENTHS[quarter];
+		return off;
+	}
+	
+	/**
+	 * Always written with two decimals ("20.00", "-0.25"), the same as 
+	 * String.format("%6.2f").trim()
+	 */
+	public static String formatLong(long points) {
+		char[] buf = new char[MAX_CHARS];
+		int n = formatLong(points, buf, 0);
+		return new String(buf, 0, n);
+	}
+	
+	/**
+	 * @return the offset after the last char written
+	 */
+	public static int formatLong(long points, char[] buf, int off) {
+		int quarter = (int)Math.abs(points % SCALE);
+		off = writeWhole(points / SCALE, points < 0, buf, off);
+		buf[off++] = '.';
+		String q = QUARTERS[quarter];
+		buf[off++] = q.charAt(0);
+		buf[off++] = q.charAt(1);
+		return off;
+	}
+	
+	/**
+	 * Writes the whole part, with a '-' if the points are negative (even if 
+	 * the whole part is 0)
+	 */
+	private static int writeWhole(long whole, boolean isNegative, char[] buf, int off) {
+		if (isNegative) buf[off++] = '-';
+		// Work with a negative number, so that Long.MIN_VALUE does not overflow
+		long v = (whole > 0) ? -whole : whole;
+		int end = off + digitCount(v);
+		int i = end;
+		do {
+			buf[--i] = (char)('0' - (v % 10));
+			v /= 10;
+		} while (v != 0);
+		return end;
+	}
+	
+	/**
+	 * @return the length of the sign and whole part
+	 */
+	private static int wholeLength(long points) {
+		long whole = points / SCALE;
+		return ((points < 0) ? 1 : 0) + digitCount((whole > 0) ? -whole : whole);
+	}
+	
+	/**
+	 * @param v zero or less
+	 */
+	private static int digitCount(long v) {
+		int n = 1;
+		while (v <= -10) {
+			v /= 10;
+			n++;
+		}
+		return n;
+	}
+}
@@ -7,6 +7,7 @@
 
 package quizbox.data;
 
+import quizbox.util.IntHashMap;
 import quizbox.util.Logger;
 
 /**
@@ -18,38 +19,80 @@ import quizbox.util.Logger;
 public class QuizBoxAddress {
 	private final static Logger log = Logger.getLogger(QuizBoxAddress.class);
 	
+	public static final int NO_ADDRESS = -1;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final String INVALID_SHORT_STRING = "000000";
+	private static final IntHashMap<QuizBoxAddress> interned = new IntHashMap<QuizBoxAddress>(256);
+	
 	String myName;
-	String myBinaryAddress;
+	int myAddress;		// 3 byte radio address, packed into the low 24 bits
+	String myShortString;
+	String myAddressString;
+	private final boolean myIsInterned;
 	
 	public QuizBoxAddress(String address) {
+		myIsInterned = false;
 		parse(address);
 	}
 	
+	private QuizBoxAddress(int address) {
+		myIsInterned = true;
+		myName = "";
+		setAddressValue(address);
+	}
+	
+	/**
+	 * Returns the shared (unnamed) instance for the packed address, so
+	 * looking up an address does not allocate once it has been seen.
+	 * The returned object can not be modified.
+	 * 
+	 * @param address 3 byte address packed into an int, or NO_ADDRESS
+	 */
+	public static QuizBoxAddress valueOf(int address) {
+		if (address < 0 || address > 0xFFFFFF) address = NO_ADDRESS;
+		synchronized (interned) {
+			QuizBoxAddress addr = interned.get(address);
+			if (addr == null) {
+				addr = new QuizBoxAddress(address);
+				interned.put(address, addr);
+			}
+			return addr;
+		}
+	}
+	
 	public void setAddress(String line) {
+		checkModifiable();
 		parse(line);
 	}
 	
 	public void setBinaryAddress(String address) {
-		myBinaryAddress = address;
+		checkModifiable();
+		setAddressValue(binaryToValue(address));
 	}
 	
 	public boolean isValidAddress() {
-		return (myBinaryAddress.length() == 3);
+		return (myAddress != NO_ADDRESS);
 	}
 	
 	public String getName() {
 		return myName;
 	}
 	
+	/**
+	 * @return the address packed into an int, or NO_ADDRESS
+	 */
+	public int getAddressValue() {
+		return myAddress;
+	}
+	
 	public String getAddressString() {
-		if (isValidAddress()) {
-			return addressToString(myBinaryAddress);
-		}
-		return "";
+		return myAddressString;
 	}
 	
 	public String getBinaryAddress() {
-		return myBinaryAddress;
+		if (!isValidAddress()) return "";
+		return "" + (char)((myAddress >> 16) & 0xFF) + 
+			(char)((myAddress >> 8) & 0xFF) + (char)(myAddress & 0xFF);
 	}
 
 	@Override
@@ -58,7 +101,7 @@ public class QuizBoxAddress {
 	}
 	
 	public String toShortString() {
-		return addressToShortString(myBinaryAddress);
+		return myShortString;
 	}
 	
 	
@@ -68,27 +111,45 @@ public class QuizBoxAddress {
 	
 	public static String addressToShortString(String address) {
 		// Do NOT trim the address!!
+		return valueToShortString(binaryToValue(address));
+	}
+	
+	private static String valueToShortString(int address) {
+		if (address == NO_ADDRESS) {
+			return INVALID_SHORT_STRING;
+		}
+		char[] c = new char[6];
+		for (int i=5; i>=0; i--) {
+			c[i] = HEX[address & 0xF];
+			address >>= 4;
+		}
+		return new String(c);
+	}
+	
+	private static int binaryToValue(String address) {
 		if (address==null || address.length()!=3) {
-			return "000000";
+			return NO_ADDRESS;
 		}
-		String s = 
-				toHex(address.charAt(0)) + 
-				toHex(address.charAt(1)) + 
-				toHex(address.charAt(2));
-		return s.toUpperCase();		
+		return ((address.charAt(0) & 0xFF) << 16) | 
+			((address.charAt(1) & 0xFF) << 8) | 
+			(address.charAt(2) & 0xFF);
+	}
+	
+	private void setAddressValue(int address) {
+		myAddress = address;
+		myShortString = valueToShortString(address);
+		myAddressString = isValidAddress() ? "<" + myShortString + ">" : "";
 	}
 	
-	private static String toHex(char c) {
-		String s = Integer.toHexString(c);
-		int i = s.length();
-		if (i < 1) s = "00";
-		else if (i < 2) s = "0" + s;
-		return s;
+	private void checkModifiable() {
+		if (myIsInterned) {
+			throw new UnsupportedOperationException("Shared address can not be modified: " + this);
+		}
 	}
 	
 	private void parse(String s) {
 		myName = "";
-		myBinaryAddress = "";
+		setAddressValue(NO_ADDRESS);
 		if (s==null || s.trim().length()==0) return;
 		
 		s = s.trim();
@@ -114,24 +175,21 @@ public class QuizBoxAddress {
 		}
 		if (s.length()<6) {
 			log.warn("Bad Address: '" + s + "'");
-			myBinaryAddress = "";
+			setAddressValue(NO_ADDRESS);
 			return;
 		}
-		int a1 = Integer.parseInt(s.substring(0, 2), 16);
-		int a2 = Integer.parseInt(s.substring(2, 4), 16);
-		int a3 = Integer.parseInt(s.substring(4, 6), 16);
-		myBinaryAddress = "" + (char)a1 + (char)a2 + (char)a3;
+		setAddressValue(Integer.parseInt(s.substring(0, 6), 16));
 	}
 	
 	@Override
 	public int hashCode() {
-		return myBinaryAddress.hashCode();
+		return myAddress;
 	}
 	
 	@Override
 	public boolean equals(Object o) {
 		if (o!=null && o instanceof QuizBoxAddress) {
-			return myBinaryAddress.equals(((QuizBoxAddress)o).myBinaryAddress);
+			return myAddress == ((QuizBoxAddress)o).myAddress;
 		}
 		return false;
 	}
@@ -8,8 +8,6 @@
 package quizbox.data;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 import quizbox.util.Logger;
@@ -17,58 +15,62 @@ import quizbox.util.Logger;
 public class QuizBoxData implements QuizConstants {
 	private final static Logger log = Logger.getLogger(QuizBoxData.class);
 
-	private static final Map<QuizBoxAddress, QuizBoxData> data = new HashMap<QuizBoxAddress, QuizBoxData>();
+	private static final QuizBoxRegistry registry = new QuizBoxRegistry();
 	
+	private final QuizBoxRegistry myRegistry;
+	private final int mySlot;
 	private final QuizBoxAddress myAddress;
 	private final int myBoxNumber;
-	
-	private long myConnectionTime;
-	private double myLQ;
-	private int myStatus;
-	private int myButtonState;	// A, B, C, NO_BTN
-	private int myPlacing;		// first, second, third, etc
 
 	public static QuizBoxData createQuizBoxData(QuizBoxAddress address, int boxNumber) {
-		if (data.containsKey(address)) {
-			QuizBoxData d = data.get(address);
+		QuizBoxData d = registry.get(address);
+		if (d != null) {
 			if (d.myBoxNumber != boxNumber) {
 				log.warn("CreateQuizBoxData found existing object, boxnumber = " + 
 					d.myBoxNumber + " requested boxnumber = " + boxNumber);
 			}
 			return d;
 		}
-		QuizBoxData qbd = new QuizBoxData(address, boxNumber);
-		data.put(address, qbd);
-		return qbd;
+		return registry.add(address, boxNumber);
 	}
 	
 	public static QuizBoxData getQuizBoxData(QuizBoxAddress address) {
-		if (data.containsKey(address)) {
-			return data.get(address);
-		}
-		return null;
+		return registry.get(address);
+	}
+	
+	public static QuizBoxRegistry getRegistry() {
+		return registry;
 	}
 	
 	public static Collection<QuizBoxData> getValues() {
-		return data.values();
+		return registry.getValues();
 	}
 	
 	public static Set<QuizBoxAddress> keySet() {
-		return data.keySet();
+		return registry.keySet();
 	}
 	
-	private QuizBoxData(QuizBoxAddress address, int boxnumber) {		
+	QuizBoxData(QuizBoxRegistry reg, int slot, QuizBoxAddress address, int boxnumber) {		
+		myRegistry = reg;
+		mySlot = slot;
 		myAddress = address;
 		myBoxNumber = boxnumber;
-		myConnectionTime = 0;
-		myLQ = 0;
-		myStatus = 0;
+		myRegistry.myConnectionTime[mySlot] = 0;
+		myRegistry.myLQ[mySlot] = 0;
+		myRegistry.myStatus[mySlot] = 0;
 		clearStates();
 	}
 	
 	public void clearStates() {
-		myButtonState = NO_BTN;
-		myPlacing = 0;
+		myRegistry.myButtonState[mySlot] = NO_BTN;
+		myRegistry.getPlacements().remove(mySlot);
+	}
+	
+	/**
+	 * @return the index of this box in the registry arrays
+	 */
+	public int getSlot() {
+		return mySlot;
 	}
 	
 	public QuizBoxAddress getAddress() {
@@ -80,51 +82,85 @@ public class QuizBoxData implements QuizConstants {
 	}
 	
 	public void resetConnectionTime() {
-		myConnectionTime = System.currentTimeMillis();
+		myRegistry.myConnectionTime[mySlot] = System.currentTimeMillis();
 	}
 	
 	public long getConnectionTime() {
-		return myConnectionTime;
+		return myRegistry.myConnectionTime[mySlot];
 	}
 	
 	public void setLQ(int lq1, int lq2) {
 		// Do some filtering on the data
 		double lq = (lq1+lq2)/2.0;
-		if (myLQ==0.0) myLQ = lq;
-		else myLQ = 0.8*myLQ + 0.2*lq;
+		double cur = myRegistry.myLQ[mySlot];
+		if (cur==0.0) myRegistry.myLQ[mySlot] = lq;
+		else myRegistry.myLQ[mySlot] = 0.8*cur + 0.2*lq;
 	}
 	
 	public void setLQ(int lq) {
 		// Do some filtering on the data - this is a low pass filter
-		if (myLQ==0.0) myLQ = lq;
-		else myLQ = 0.95*myLQ + 0.05*(double)lq;
+		double cur = myRegistry.myLQ[mySlot];
+		if (cur==0.0) myRegistry.myLQ[mySlot] = lq;
+		else myRegistry.myLQ[mySlot] = 0.95*cur + 0.05*(double)lq;
 	}
 	
 	public int getLQ() {
-		return (int)Math.round(myLQ);
+		return (int)Math.round(myRegistry.myLQ[mySlot]);
 	}
 	
 	public void setButtonState(int buttonState) {
-		myButtonState = buttonState;
+		myRegistry.myButtonState[mySlot] = buttonState;
 	}
 	
 	public int getButtonState() {
-		return myButtonState;
+		return myRegistry.myButtonState[mySlot];
 	}
 	
 	public void setStatus(int status) {
-		myStatus = status;
+		myRegistry.myStatus[mySlot] = status;
 	}
 	
 	public int getStatus() {
-		return myStatus;
+		return myRegistry.myStatus[mySlot];
 	}
 	
+	/**
+	 * Places are given out by the PlacementEngine, so only clearing the 
+	 * placing (zero) is done here; the place it gave out may be set again.
+	 */
 	public void setPlacing(int placing) {
-		myPlacing = placing;
+		if (placing <= 0) {
+			myRegistry.getPlacements().remove(mySlot);
+		} else if (placing != getPlacing()) {
+			log.warn("Ignored placing " + placing + " for " + myAddress + 
+				", places are set by the press time");
+		}
 	}
 	
 	public int getPlacing() {
-		return myPlacing;
+		return myRegistry.getPlacements().getSnapshot().getPlace(mySlot);
+	}
+	
+	/**
+	 * @return true if this box's press was within the tie window of the 
+	 *   box placed before or after it
+	 */
+	public boolean isPlacingTied() {
+		return myRegistry.getPlacements().getSnapshot().isTied(mySlot);
+	}
+	
+	/**
+	 * @return nsec after the press of the place before, or PlacementSnapshot.NO_GAP
+	 */
+	public long getPlacingGap() {
+		return myRegistry.getPlacements().getSnapshot().getGap(mySlot);
+	}
+	
+	/**
+	 * @return the System.nanoTime() of the press that placed this box, 
+	 *   zero if it is not placed
+	 */
+	public long getPressTime() {
+		return myRegistry.getPlacements().getSnapshot().getPressTime(mySlot);
 	}
 }
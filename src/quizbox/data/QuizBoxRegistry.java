@@ -0,0 +1,141 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import quizbox.util.IntHashMap;
+
+/**
+ * Maps each quiz box address to a small integer slot.  The per box state
+ * (button, LQ, status, connection time) is kept in arrays indexed by slot,
+ * so scans over all of the boxes walk plain arrays.  The placings are kept
+ * by the PlacementEngine.
+ *
+ * Boxes are only added while loading the teams, before the connection is
+ * opened, after that the slots and arrays do not change.
+ *
+ * @author Ted Meyers
+ * @since August 2012
+ */
+public class QuizBoxRegistry implements QuizConstants {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private final IntHashMap<QuizBoxData> myIndex;
+	private final List<QuizBoxData> myBoxes;
+	private final Set<QuizBoxAddress> myAddresses;
+	private int mySize;
+	private final PlacementEngine myPlacements;
+
+	int[] myButtonState;	// A, B, C, NO_BTN
+	double[] myLQ;
+	int[] myStatus;
+	long[] myConnectionTime;
+
+	public QuizBoxRegistry() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public QuizBoxRegistry(int capacity) {
+		myIndex = new IntHashMap<QuizBoxData>(capacity);
+		myBoxes = new ArrayList<QuizBoxData>(capacity);
+		myAddresses = new LinkedHashSet<QuizBoxAddress>();
+		mySize = 0;
+		myPlacements = new PlacementEngine();
+		myButtonState = new int[capacity];
+		myLQ = new double[capacity];
+		myStatus = new int[capacity];
+		myConnectionTime = new long[capacity];
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	public QuizBoxData get(QuizBoxAddress address) {
+		if (address == null) return null;
+		return myIndex.get(address.getAddressValue());
+	}
+
+	public QuizBoxData get(int address) {
+		return myIndex.get(address);
+	}
+
+	public QuizBoxData getAt(int slot) {
+		return myBoxes.get(slot);
+	}
+
+	public List<QuizBoxData> getValues() {
+		return Collections.unmodifiableList(myBoxes);
+	}
+
+	public Set<QuizBoxAddress> keySet() {
+		return Collections.unmodifiableSet(myAddresses);
+	}
+
+	QuizBoxData add(QuizBoxAddress address, int boxNumber) {
+		int slot = mySize;
+		if (slot == myButtonState.length) grow();
+		QuizBoxData qbd = new QuizBoxData(this, slot, address, boxNumber);
+		myIndex.put(address.getAddressValue(), qbd);
+		myBoxes.add(qbd);
+		myAddresses.add(address);
+		mySize++;
+		return qbd;
+	}
+
+	public PlacementEngine getPlacements() {
+		return myPlacements;
+	}
+
+	/**
+	 * Clears the placing of every box
+	 *
+	 * @return the placings before they were cleared
+	 */
+	public PlacementSnapshot clearPlacings() {
+		return myPlacements.reset();
+	}
+
+	/**
+	 * Places the box by the time its button press was read, rather than by
+	 * the order the presses are processed in, see PlacementEngine.place()
+	 */
+	public int placeByTime(int slot, long pressTime) {
+		return myPlacements.place(slot, pressTime);
+	}
+
+	/**
+	 * Sets each box to not connected if nothing has been heard from it
+	 * within the timeout, otherwise to connected or selected.
+	 */
+	public void updateConnectionStatus(long now, long timeout) {
+		for (int i=0; i<mySize; i++) {
+			if (now - myConnectionTime[i] > timeout) {
+				myStatus[i] = NOT_CONNECTED_STATUS;
+			} else if (myButtonState[i] == NO_BTN) {
+				myStatus[i] = CONNECTED_STATUS;
+			} else {
+				myStatus[i] = SELECTED_STATUS;
+			}
+		}
+	}
+
+	private void grow() {
+		int n = myButtonState.length*2;
+		myButtonState = Arrays.copyOf(myButtonState, n);
+		myLQ = Arrays.copyOf(myLQ, n);
+		myStatus = Arrays.copyOf(myStatus, n);
+		myConnectionTime = Arrays.copyOf(myConnectionTime, n);
+	}
+}
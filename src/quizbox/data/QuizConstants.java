@@ -89,6 +89,7 @@ public interface QuizConstants {
 	public static final int CORRECT_SPEED_ANSWER = 1;
 	public static final int INCORRECT_SPEED_ANSWER = 2;
 	
-	public static final double FULL_POINTS = 1.0;
-	public static final double ZERO_POINTS = 0.0;
+	// The current points are kept as quarters of the full points, see Points
+	public static final int FULL_POINTS = Points.SCALE;
+	public static final int ZERO_POINTS = 0;
 }
@@ -22,23 +22,25 @@ public class QuizMessage {
 	public static final int INFO_TYPE = 7;
 	
 	private String myLine;
-	private int myType;
-	private int myButton;
-	private int myLQ1;
-	private int myLQ2;
-	private QuizBoxAddress myAddress;
-	private QuizBoxAddress myBaseAddress;
-	private String myVersion;
-	private String myInfo;
-	private String myInfoType;
-	private String myMode;
+	private byte[] myEncoded;
+	private final QuizMessageDecoder myDecoder;
 	
 	public QuizMessage() {
+		myDecoder = new QuizMessageDecoder();
 		clear();
 	}
 	
 	public QuizMessage(String line) {
-		parseLine(line);
+		this(line, System.nanoTime());
+	}
+	
+	/**
+	 * @param line
+	 * @param readTime the System.nanoTime() when the line was read from the device
+	 */
+	public QuizMessage(String line, long readTime) {
+		myDecoder = new QuizMessageDecoder();
+		parseLine(line, readTime);
 	}
 	
 	public void setMessage(String line) {
@@ -47,161 +49,139 @@ public class QuizMessage {
 	
 	public void clear() {
 		myLine = "";
-		myVersion = "";
-		myInfo = "";
-		myInfoType = "";
-		myType = 0;
-		myMode = "";
-		myAddress = new QuizBoxAddress("");
-		myBaseAddress = new QuizBoxAddress("");
-		myButton = 0;
-		myLQ1 = 0;
-		myLQ2 = 0;
+		myEncoded = null;
+		myDecoder.clear();
+	}
+	
+	/**
+	 * @return the decoder holding the parsed fields of this message
+	 */
+	public QuizMessageDecoder getDecoder() {
+		return myDecoder;
 	}
 	
 	public String getDataLine() {
 		return myLine;
 	}
 	
+	/**
+	 * @return the bytes sent to the device for this message: the line, one
+	 *   byte per char, and a newline.  Shared, so must not be modified.
+	 */
+	public byte[] getEncodedBytes() {
+		byte[] b = myEncoded;
+		if (b == null) {
+			b = encode(myLine);
+			myEncoded = b;
+		}
+		return b;
+	}
+	
+	private static byte[] encode(String line) {
+		int len = line.length();
+		byte[] b = new byte[len + 1];
+		for (int i=0; i<len; i++) b[i] = (byte)line.charAt(i);
+		b[len] = '\n';
+		return b;
+	}
+	
+	/**
+	 * @return the System.nanoTime() when the line was read from the device
+	 */
+	public long getReadTime() {
+		return myDecoder.getReadTime();
+	}
+	
 	public int getMessageType() {
-		return myType;
+		return myDecoder.getMessageType();
 	}
 	
 	public boolean isButtonSelectMessage() {
-		return myType == BUTTON_TYPE;
+		return myDecoder.isButtonSelectMessage();
 	}
 	
 	public boolean isButtonStatusMessage() {
-		return myType == UPDATE_TYPE;
+		return myDecoder.isButtonStatusMessage();
 	}
 	
 	public boolean isButtonMessage() {
-		return myType == BUTTON_TYPE || myType == UPDATE_TYPE;
+		return myDecoder.isButtonMessage();
 	}
 	
 	public boolean isRequestMessage() {
-		return myType == VERSION_TYPE;
+		return myDecoder.getMessageType() == VERSION_TYPE;
 	}
 	
 	public boolean isLinkStatusMessage() {
-		return myType == STATUS_TYPE;
+		return myDecoder.isLinkStatusMessage();
 	}
 	
 	public boolean isVersionMessage() {
-		return myType == VERSION_TYPE;
+		return myDecoder.isVersionMessage();
 	}
 	
 	public boolean isModeMessage() {
-		return myType == MODE_TYPE;
+		return myDecoder.isModeMessage();
 	}
 	
 	public boolean isInfoMessage() {
-		return myType == INFO_TYPE;
+		return myDecoder.isInfoMessage();
 	}
 	
 	public String getVersion() {
-		return myVersion;
+		return myDecoder.getVersion();
 	}
 	
 	public String getInfoString() {
-		return myInfo;
+		return myDecoder.getInfoString();
 	}
 	
 	public String getInfoType() {
-		return myInfoType;
+		char c = myDecoder.getInfoType();
+		return (c == QuizMessageDecoder.NO_MODE) ? "" : String.valueOf(c);
 	}
 	
 	public String getMode() {
-		return myMode;
+		char c = myDecoder.getMode();
+		return (c == QuizMessageDecoder.NO_MODE) ? "" : String.valueOf(c);
 	}
 	
 	public QuizBoxAddress getAddress() {
-		return myAddress;
+		return myDecoder.getQuizBoxAddress();
 	}
 	
 	public QuizBoxAddress getBaseAddress() {
-		return myBaseAddress;
+		return myDecoder.getQuizBoxBaseAddress();
 	}
 	
 	public int getButton() {
-		int btn = QuizConstants.X_BTN;
-		if (myButton==BUTTON_A) btn = QuizConstants.A_BTN;
-		else if (myButton==BUTTON_B) btn = QuizConstants.B_BTN;
-		else if (myButton==BUTTON_C) btn = QuizConstants.C_BTN;
-		return btn;
+		return myDecoder.getButton();
 	}
 	
 	public int getLQ1() {
-		return myLQ1;
+		return myDecoder.getLQ1();
 	}
 	
 	public int getLQ2() {
-		return myLQ2;
+		return myDecoder.getLQ2();
 	}
 	
 	public void parseLine(String line) {
-		clear();
+		parseLine(line, System.nanoTime());
+	}
+	
+	public void parseLine(String line, long readTime) {
 		myLine = line;
-		if (myLine==null || myLine.trim().length()==0) {
-			return;
-		}
-		
-		char c = ' ';
-		int len = myLine.length();
-		if (len > 0) c = myLine.charAt(0);
-		if (c=='^') {
-			myType = VERSION_TYPE;
-			if (len >= 3) {
-				String[] fields = myLine.substring(1).split(":");
-				if (fields.length > 0) {
-					myVersion = fields[0];
-					if (fields.length > 1) myInfo = fields[1];
-				}
-			}
-		} else if (c == '#') {
-			myType = BUTTON_TYPE;
-			if (len >= 6) {
-				myAddress.setBinaryAddress(myLine.substring(1,4));
-				myButton = Integer.parseInt(myLine.substring(4, 6));
-				if (len > 6) myLQ1 = myLine.charAt(6);
-			}
-		} else if (c == '+') {
-			myType = UPDATE_TYPE;
-			if (len >= 6) {
-				myAddress.setBinaryAddress(myLine.substring(1,4));
-				myButton = Integer.parseInt(myLine.substring(4, 6));
-				if (len > 6) myLQ1 = myLine.charAt(6);
-			}
- 		} else if (c == '@') {
-			myType = STATUS_TYPE;
-			if (len >= 7) {
-				myAddress.setBinaryAddress(myLine.substring(1,4));
-				myBaseAddress.setBinaryAddress(myLine.substring(4,7));
-				if (len > 7) myLQ1 = myLine.charAt(7);
-				if (len > 7) myLQ2 = myLine.charAt(8);
-			}
- 		} else if (c == '!') {
-			myType = MODE_TYPE;
-			if (len >= 2) {
-				myMode = ""+myLine.charAt(1);
-				if (len > 2) myLQ1 = myLine.charAt(2);
-			}
- 		} else if (c=='%') {
-			myType = INFO_TYPE;
-			if (len >= 2) {
-				myInfoType = "" + myLine.charAt(1);
-				// skip ":"
-				if (len > 3) myInfo = myLine.substring(3);
-			}
-		} else {
-			myType = NONE_TYPE;
-		}
+		myEncoded = null;
+		myDecoder.decode(line, readTime);
 	}
 	
 	public static QuizMessage createRequest(String requestString) {
 		QuizMessage qm = new QuizMessage();
-		qm.myType = REQUEST_TYPE;
+		qm.myDecoder.setType(REQUEST_TYPE);
 		qm.myLine = requestString;
+		// Requests are mostly static constants, so encode them once up front
+		qm.myEncoded = encode(requestString);
 		return qm;
 	}
 	
@@ -213,6 +193,10 @@ public class QuizMessage {
 		return createRequest("v");
 	}
 	
+	public static QuizMessage createBaudRateRequest() {
+		return createRequest("b");
+	}
+	
 	public static QuizMessage createLockRequest() {
 		return createRequest("L");
 	}
@@ -272,7 +256,7 @@ public class QuizMessage {
 	
 	@Override
 	public String toString() {
-		String s = "[QuizMessage=Type:" + myType + ", Line: '" + myLine + "']";
+		String s = "[QuizMessage=Type:" + getMessageType() + ", Line: '" + myLine + "']";
 		return s;
 	}
 }
@@ -0,0 +1,371 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.data;
+
+/**
+ * Reusable decoder for the frames sent by the base station.  Parses a
+ * frame straight from a String, char buffer or byte buffer into primitive
+ * fields, nothing is allocated while decoding.  The same instance is meant
+ * to be reused for every frame, so it is not thread safe.
+ *
+ * The version and info strings are only created when asked for, they
+ * refer back to the decoded buffer and are valid until the next decode.
+ *
+ * @author Ted Meyers
+ * @since August 2012
+ */
+public class QuizMessageDecoder {
+	public static final int NO_ADDRESS = QuizBoxAddress.NO_ADDRESS;
+	public static final char NO_MODE = 0;
+	public static final int NO_REMOTE_TIME = -1;
+
+	private final ArraySequence myArraySequence;
+	private CharSequence myLine;
+	private int myType;
+	private int myButton;
+	private int myLQ1;
+	private int myLQ2;
+	private int myAddress;
+	private int myBaseAddress;
+	private char myMode;
+	private char myInfoType;
+	private int myVersionStart;
+	private int myVersionEnd;
+	private int myInfoStart;
+	private int myInfoEnd;
+	private long myReadTime;
+	private int myRemoteTime;
+
+	public QuizMessageDecoder() {
+		myArraySequence = new ArraySequence();
+		clear();
+	}
+
+	public void clear() {
+		myLine = null;
+		myType = QuizMessage.NONE_TYPE;
+		myButton = 0;
+		myLQ1 = 0;
+		myLQ2 = 0;
+		myAddress = NO_ADDRESS;
+		myBaseAddress = NO_ADDRESS;
+		myMode = NO_MODE;
+		myInfoType = NO_MODE;
+		myVersionStart = 0;
+		myVersionEnd = 0;
+		myInfoStart = 0;
+		myInfoEnd = 0;
+		myReadTime = 0;
+		myRemoteTime = NO_REMOTE_TIME;
+	}
+
+	/**
+	 * Decodes a line that has no read time, the current time is used instead
+	 *
+	 * @return the message type, one of the QuizMessage *_TYPE values
+	 */
+	public int decode(CharSequence line) {
+		return decode(line, System.nanoTime());
+	}
+
+	/**
+	 * @param readTime the System.nanoTime() when the line was read from the device
+	 * @return the message type, one of the QuizMessage *_TYPE values
+	 */
+	public int decode(CharSequence line, long readTime) {
+		clear();
+		myLine = line;
+		myReadTime = readTime;
+		parse();
+		return myType;
+	}
+
+	public int decode(char[] buffer, int offset, int length) {
+		myArraySequence.set(buffer, null, offset, length);
+		return decode(myArraySequence);
+	}
+
+	/**
+	 * Bytes are treated as unsigned, the same as the serial reader does
+	 */
+	public int decode(byte[] buffer, int offset, int length) {
+		myArraySequence.set(null, buffer, offset, length);
+		return decode(myArraySequence);
+	}
+
+	void setType(int type) {
+		myType = type;
+	}
+
+	public int getMessageType() {
+		return myType;
+	}
+
+	public boolean isButtonSelectMessage() {
+		return myType == QuizMessage.BUTTON_TYPE;
+	}
+
+	public boolean isButtonStatusMessage() {
+		return myType == QuizMessage.UPDATE_TYPE;
+	}
+
+	public boolean isButtonMessage() {
+		return myType == QuizMessage.BUTTON_TYPE || myType == QuizMessage.UPDATE_TYPE;
+	}
+
+	public boolean isLinkStatusMessage() {
+		return myType == QuizMessage.STATUS_TYPE;
+	}
+
+	public boolean isVersionMessage() {
+		return myType == QuizMessage.VERSION_TYPE;
+	}
+
+	public boolean isModeMessage() {
+		return myType == QuizMessage.MODE_TYPE;
+	}
+
+	public boolean isInfoMessage() {
+		return myType == QuizMessage.INFO_TYPE;
+	}
+
+	public CharSequence getLine() {
+		return myLine;
+	}
+
+	/**
+	 * @return the System.nanoTime() when the line was read from the device
+	 */
+	public long getReadTime() {
+		return myReadTime;
+	}
+
+	/**
+	 * @return the remote's 16 bit ms clock, when the button was pressed for
+	 *   a '#' message and when it was sent for a '+' message; NO_REMOTE_TIME
+	 *   if the remote does not send it (before remote version 5d)
+	 */
+	public int getRemoteTime() {
+		return myRemoteTime;
+	}
+
+	public boolean hasRemoteTime() {
+		return myRemoteTime != NO_REMOTE_TIME;
+	}
+
+	public boolean hasAddress() {
+		return myAddress != NO_ADDRESS;
+	}
+
+	/**
+	 * @return the 3 byte remote address packed into an int, or NO_ADDRESS
+	 */
+	public int getAddress() {
+		return myAddress;
+	}
+
+	public int getBaseAddress() {
+		return myBaseAddress;
+	}
+
+	/**
+	 * @return the shared QuizBoxAddress for the remote address (invalid if there is none)
+	 */
+	public QuizBoxAddress getQuizBoxAddress() {
+		return QuizBoxAddress.valueOf(myAddress);
+	}
+
+	public QuizBoxAddress getQuizBoxBaseAddress() {
+		return QuizBoxAddress.valueOf(myBaseAddress);
+	}
+
+	/**
+	 * @return the raw button (pin) number sent by the remote
+	 */
+	public int getButtonCode() {
+		return myButton;
+	}
+
+	/**
+	 * @return the button as one of the QuizConstants *_BTN values
+	 */
+	public int getButton() {
+		int btn = QuizConstants.X_BTN;
+		if (myButton==QuizMessage.BUTTON_A) btn = QuizConstants.A_BTN;
+		else if (myButton==QuizMessage.BUTTON_B) btn = QuizConstants.B_BTN;
+		else if (myButton==QuizMessage.BUTTON_C) btn = QuizConstants.C_BTN;
+		return btn;
+	}
+
+	public int getLQ1() {
+		return myLQ1;
+	}
+
+	public int getLQ2() {
+		return myLQ2;
+	}
+
+	public char getMode() {
+		return myMode;
+	}
+
+	public char getInfoType() {
+		return myInfoType;
+	}
+
+	public String getVersion() {
+		return substring(myVersionStart, myVersionEnd);
+	}
+
+	public String getInfoString() {
+		return substring(myInfoStart, myInfoEnd);
+	}
+
+	private String substring(int start, int end) {
+		if (myLine == null || end <= start) return "";
+		return myLine.subSequence(start, end).toString();
+	}
+
+	private void parse() {
+		if (myLine == null || isBlank(myLine)) {
+			return;
+		}
+
+		int len = myLine.length();
+		char c = myLine.charAt(0);
+		if (c=='^') {
+			myType = QuizMessage.VERSION_TYPE;
+			if (len >= 3) {
+				// "^version:info[:...]"
+				int i = indexOf(':', 1, len);
+				myVersionStart = 1;
+				myVersionEnd = i;
+				if (i < len) {
+					myInfoStart = i+1;
+					myInfoEnd = indexOf(':', i+1, len);
+				}
+			}
+		} else if (c == '#' || c == '+') {
+			myType = (c == '#') ? QuizMessage.BUTTON_TYPE : QuizMessage.UPDATE_TYPE;
+			if (len >= 6) {
+				myAddress = parseAddress(1);
+				myButton = parseTwoDigits(4);
+				if (len > 6) myLQ1 = myLine.charAt(6);
+				// "#aaabbLtttt", tttt is the remote clock in hex
+				if (len >= 11) myRemoteTime = parseHex(7, 4);
+			}
+		} else if (c == '@') {
+			myType = QuizMessage.STATUS_TYPE;
+			if (len >= 7) {
+				myAddress = parseAddress(1);
+				myBaseAddress = parseAddress(4);
+				if (len > 7) myLQ1 = myLine.charAt(7);
+				if (len > 8) myLQ2 = myLine.charAt(8);
+			}
+		} else if (c == '!') {
+			myType = QuizMessage.MODE_TYPE;
+			if (len >= 2) {
+				myMode = myLine.charAt(1);
+				if (len > 2) myLQ1 = myLine.charAt(2);
+			}
+		} else if (c=='%') {
+			myType = QuizMessage.INFO_TYPE;
+			if (len >= 2) {
+				myInfoType = myLine.charAt(1);
+				// skip ":"
+				if (len > 3) {
+					myInfoStart = 3;
+					myInfoEnd = len;
+				}
+			}
+		} else {
+			myType = QuizMessage.NONE_TYPE;
+		}
+	}
+
+	private int parseAddress(int i) {
+		return ((myLine.charAt(i) & 0xFF) << 16) |
+			((myLine.charAt(i+1) & 0xFF) << 8) |
+			(myLine.charAt(i+2) & 0xFF);
+	}
+
+	private int parseTwoDigits(int i) {
+		int d1 = myLine.charAt(i) - '0';
+		int d2 = myLine.charAt(i+1) - '0';
+		if (d1 < 0 || d1 > 9 || d2 < 0 || d2 > 9) return 0;
+		return d1*10 + d2;
+	}
+
+	/**
+	 * @return the value, or NO_REMOTE_TIME if there is a non hex digit
+	 */
+	private int parseHex(int i, int count) {
+		int v = 0;
+		for (int j=i; j<i+count; j++) {
+			int d = Character.digit(myLine.charAt(j), 16);
+			if (d < 0) return NO_REMOTE_TIME;
+			v = (v << 4) | d;
+		}
+		return v;
+	}
+
+	private int indexOf(char c, int from, int len) {
+		for (int i=from; i<len; i++) {
+			if (myLine.charAt(i) == c) return i;
+		}
+		return len;
+	}
+
+	private static boolean isBlank(CharSequence s) {
+		for (int i=0; i<s.length(); i++) {
+			if (s.charAt(i) > ' ') return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Lets a char or byte buffer be decoded without copying it
+	 */
+	private static class ArraySequence implements CharSequence {
+		private char[] myChars;
+		private byte[] myBytes;
+		private int myOffset;
+		private int myLength;
+
+		void set(char[] chars, byte[] bytes, int offset, int length) {
+			myChars = chars;
+			myBytes = bytes;
+			myOffset = offset;
+			myLength = length;
+		}
+
+		@Override
+		public int length() {
+			return myLength;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (myChars != null) return myChars[myOffset + index];
+			return (char)(myBytes[myOffset + index] & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (myChars != null) return new String(myChars, myOffset + start, end - start);
+			char[] c = new char[end - start];
+			for (int i=0; i<c.length; i++) c[i] = charAt(start + i);
+			return new String(c);
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, myLength).toString();
+		}
+	}
+}
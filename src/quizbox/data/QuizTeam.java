@@ -7,6 +7,7 @@
 
 package quizbox.data;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -28,21 +29,20 @@ public class QuizTeam implements Comparable<QuizTeam>, QuizConstants {
 	private final static Logger log = Logger.getLogger(QuizTeam.class);
 	private static final Map<QuizBoxAddress, QuizTeam> teams = new HashMap<QuizBoxAddress, QuizTeam>();
 	private  static final SortedSet<QuizTeam> sortedTeams = new TreeSet<QuizTeam>();
+	private static QuizTeam[] teamsBySlot = new QuizTeam[0];	// indexed by QuizBoxData slot
+	private static final TeamStandings standings = new TeamStandings();
 
 	private final QuizBoxData myQuizBoxData;
 	private final String myTeamName;
 	
-	private double myTotalPoints;
-	private double myCurrentNormalPoints;
-	private double myCurrentBonusPoints;
+	private long myTotalPoints;				// quarter points
+	private int myCurrentNormalPoints;		// quarters of the full points
+	private int myCurrentBonusPoints;
 	private int myCorrectSpeedCount;
 	
-	// Transient
-	private int myStanding;		// First, Second, Third, etc
-	
 	public static QuizTeam createQuizTeam(QuizBoxAddress address, int boxNumber, String teamName) {
-		if (teams.containsKey(address)) {
-			QuizTeam qt = teams.get(address);
+		QuizTeam qt = teams.get(address);
+		if (qt != null) {
 			if (!qt.myTeamName.equals(teamName)) {
 				log.warn("CreateQuizTeam found existing object: '" + qt.myTeamName +
 					"' which differs from requested name: '" + teamName + "'");
@@ -53,6 +53,12 @@ public class QuizTeam implements Comparable<QuizTeam>, QuizConstants {
 		QuizTeam team = new QuizTeam(qbd, teamName);
 		teams.put(address, team);
 		sortedTeams.add(team);
+		int slot = qbd.getSlot();
+		if (slot >= teamsBySlot.length) {
+			teamsBySlot = Arrays.copyOf(teamsBySlot, Math.max(slot+1, teamsBySlot.length*2));
+		}
+		teamsBySlot[slot] = team;
+		standings.add(team);
 		return team;
 		
 	}
@@ -61,9 +67,18 @@ public class QuizTeam implements Comparable<QuizTeam>, QuizConstants {
 		return sortedTeams;
 	}
 	
+	/**
+	 * @return the standings of the teams made by createQuizTeam(), kept up 
+	 *   to date as their totals change
+	 */
+	public static TeamStandings getStandings() {
+		return standings;
+	}
+	
 	public static QuizTeam createQuizTeam(QuizBoxAddress address, String teamName) {
-		if (teams.containsKey(address)) {
-			return teams.get(address);
+		QuizTeam qt = getQuizTeam(address);
+		if (qt != null) {
+			return qt;
 		}
 		QuizBoxData qbd = QuizBoxData.getQuizBoxData(address);
 		QuizTeam team = new QuizTeam(qbd, teamName);
@@ -72,10 +87,19 @@ public class QuizTeam implements Comparable<QuizTeam>, QuizConstants {
 	}
 	
 	public static QuizTeam getQuizTeam(QuizBoxAddress address) {
-		if (teams.containsKey(address)) {
-			return teams.get(address);
-		}
-		return null;
+		QuizBoxData qbd = QuizBoxData.getQuizBoxData(address);
+		if (qbd == null) return null;
+		return getQuizTeamAt(qbd.getSlot());
+	}
+	
+	/**
+	 * @param slot the QuizBoxData slot of the team's box
+	 * @return the team, or null if there is no team for the slot
+	 */
+	public static QuizTeam getQuizTeamAt(int slot) {
+		QuizTeam[] arr = teamsBySlot;
+		if (slot < 0 || slot >= arr.length) return null;
+		return arr[slot];
 	}
 	
 	public static Collection<QuizTeam> getValues() {
@@ -93,12 +117,12 @@ public class QuizTeam implements Comparable<QuizTeam>, QuizConstants {
 	}
 	
 	public void initValues(double points, int speedCount) {
-		myTotalPoints = points;
+		myTotalPoints = Points.valueOf(points);
 		myCorrectSpeedCount = speedCount;
 		
 		myCurrentNormalPoints = 0;
 		myCurrentBonusPoints = 0;
-		myStanding = 0;		
+		standings.update(this);
 	}
 	
 	public int getCorrectSpeedCount() {
@@ -110,23 +134,29 @@ public class QuizTeam implements Comparable<QuizTeam>, QuizConstants {
 	public int getCurrentPlacing() {
 		return myQuizBoxData.getPlacing();
 	}
-	public double getTotalPoints() {
+	/**
+	 * @return the total in quarter points, see Points
+	 */
+	public long getTotalPoints() {
 		return myTotalPoints;
 	}
-	public double getCurrentPoints() {
+	/**
+	 * @return the current points as quarters of the full points (FULL_POINTS)
+	 */
+	public int getCurrentPoints() {
 		return (myCurrentNormalPoints + myCurrentBonusPoints);
 	}
-	public double getCurrentNormalPoints() {
+	public int getCurrentNormalPoints() {
 		return myCurrentNormalPoints;
 	}
-	public double getCurrentBonusPoints() {
+	public int getCurrentBonusPoints() {
 		return myCurrentBonusPoints;
 	}
 	/*
-	 * Returns the standing (First, Second, Third, etc)
+	 * Returns the standing (First, Second, Third, etc), tied teams share a standing
 	 */
 	public int getStanding() {
-		return myStanding;
+		return standings.getStanding(this);
 	}
 	
 	public void incrementCorrectSpeedCount() {
@@ -138,24 +168,26 @@ public class QuizTeam implements Comparable<QuizTeam>, QuizConstants {
 	public void setCurrentPlacing(int i) {
 		myQuizBoxData.setPlacing(i);
 	}
-	public void setCurrentNormalPoints(double d) {
-		myCurrentNormalPoints = d;
-	}
-	public void setCurrentBonusPoints(double d) {
-		myCurrentBonusPoints = d;
+	public void setCurrentNormalPoints(int i) {
+		myCurrentNormalPoints = i;
 	}
-	public void setStanding(int i) {
-		myStanding = i;
+	public void setCurrentBonusPoints(int i) {
+		myCurrentBonusPoints = i;
 	}
 	
-	public void incrementTotalPoints(double normalPointValue, double bonusPointValue) {
-		double normal = normalPointValue * getCurrentNormalPoints();
-		double bonus = bonusPointValue * getCurrentBonusPoints();
+	/**
+	 * @param normalPointValue the full points for the question
+	 * @param bonusPointValue the full points for a quiz out
+	 */
+	public void incrementTotalPoints(int normalPointValue, int bonusPointValue) {
+		long normal = (long)normalPointValue * getCurrentNormalPoints();
+		long bonus = (long)bonusPointValue * getCurrentBonusPoints();
 		myTotalPoints += normal + bonus;
+		standings.update(this);
 	}	
 	public void clearCurrentPoints() {
-		myCurrentNormalPoints = 0.0;
-		myCurrentBonusPoints = 0.0;		
+		myCurrentNormalPoints = 0;
+		myCurrentBonusPoints = 0;		
 	}
 	public void clearCurrentInputs() {
 		myQuizBoxData.clearStates();
@@ -0,0 +1,140 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.data;
+
+import quizbox.util.IntHashMap;
+
+/**
+ * Works out when a button was pressed, in PC time, from the remote's own
+ * ms clock.  Radio retries can deliver two presses a few msec apart in 
+ * the wrong order; the remote clock says which came first.
+ *
+ * Each heartbeat gives the remote clock at the time it was sent, and the
+ * PC time it was read.  The difference is the clock offset plus however 
+ * long the message took; the smallest difference seen over the last few
+ * heartbeats is taken as the offset, that is the one that was least delayed.
+ *
+ * The remote clock is 16 bits of msec, so it wraps about every 65 sec,
+ * and is unwrapped here.  Only used from the listener thread.
+ */
+public class RemoteClockEstimator {
+	public static final int DEFAULT_WINDOW = 16;
+	// A press older than this is taken to be a bad clock, not a slow radio
+	public static final long MAX_PRESS_AGE_NSEC = 2000000000L;
+	// An offset change bigger than this means the remote was restarted
+	private static final long RESTART_NSEC = 1000000000L;
+	private static final long NSEC_PER_MSEC = 1000000L;
+	private static final int WRAP = 1 << 16;
+	
+	private final IntHashMap<RemoteClock> myClocks;
+	private final int myWindow;
+	
+	public RemoteClockEstimator() {
+		this(DEFAULT_WINDOW);
+	}
+	
+	/**
+	 * @param window how many of the latest heartbeats the offset is taken from
+	 */
+	public RemoteClockEstimator(int window) {
+		myClocks = new IntHashMap<RemoteClock>();
+		myWindow = window;
+	}
+	
+	/**
+	 * Adds a heartbeat from a remote
+	 * 
+	 * @param address
+	 * @param remoteTime the remote's 16 bit ms clock when it was sent
+	 * @param readTime the System.nanoTime() it was read
+	 */
+	public void update(int address, int remoteTime, long readTime) {
+		if (remoteTime < 0) return;
+		RemoteClock clock = myClocks.get(address);
+		if (clock == null) {
+			clock = new RemoteClock(myWindow);
+			myClocks.put(address, clock);
+		}
+		clock.update(remoteTime, readTime);
+	}
+	
+	public boolean hasEstimate(int address) {
+		RemoteClock clock = myClocks.get(address);
+		return clock != null && clock.myCount > 0;
+	}
+	
+	/**
+	 * @return the estimated remote clock offset, in nsec (PC time minus 
+	 *   remote time), or 0 if there is none yet
+	 */
+	public long getOffset(int address) {
+		RemoteClock clock = myClocks.get(address);
+		return (clock == null || clock.myCount == 0) ? 0 : clock.myOffset;
+	}
+	
+	/**
+	 * @param address
+	 * @param remoteTime the remote's 16 bit ms clock when the button was pressed
+	 * @param readTime the System.nanoTime() the press was read
+	 * @return the System.nanoTime() the button was pressed; the read time
+	 *   if there is no estimate for the remote, or it does not make sense
+	 */
+	public long toPressTime(int address, int remoteTime, long readTime) {
+		RemoteClock clock = myClocks.get(address);
+		if (remoteTime < 0 || clock == null || clock.myCount == 0) return readTime;
+		
+		// Unwrap to the remote time closest to what the remote clock reads now
+		long now = (readTime - clock.myOffset)/NSEC_PER_MSEC;
+		long remote = now + (short)(remoteTime - (int)(now & (WRAP-1)));
+		long pressTime = remote*NSEC_PER_MSEC + clock.myOffset;
+		
+		// Not pressed after it was read, within the timing error
+		if (pressTime - readTime > 0) return readTime;
+		if (readTime - pressTime > MAX_PRESS_AGE_NSEC) return readTime;
+		return pressTime;
+	}
+	
+	private static class RemoteClock {
+		private final long[] myOffsets;
+		private int myNext;
+		private int myCount;
+		private long myOffset;
+		private long myRemote;		// unwrapped ms of the last heartbeat
+		
+		RemoteClock(int window) {
+			myOffsets = new long[window];
+			myNext = 0;
+			myCount = 0;
+		}
+		
+		void update(int remoteTime, long readTime) {
+			if (myCount == 0) {
+				myRemote = remoteTime;
+			} else {
+				myRemote += (short)(remoteTime - (int)(myRemote & (WRAP-1)));
+			}
+			long offset = readTime - myRemote*NSEC_PER_MSEC;
+			if (myCount > 0 && Math.abs(offset - myOffset) > RESTART_NSEC) {
+				// Start again, the old samples are for a different clock
+				myRemote = remoteTime;
+				offset = readTime - myRemote*NSEC_PER_MSEC;
+				myNext = 0;
+				myCount = 0;
+			}
+			myOffsets[myNext] = offset;
+			myNext = (myNext + 1) % myOffsets.length;
+			if (myCount < myOffsets.length) myCount++;
+			
+			long min = myOffsets[0];
+			for (int i=1; i<myCount; i++) {
+				if (myOffsets[i] - min < 0) min = myOffsets[i];
+			}
+			myOffset = min;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.data;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the team totals sorted, highest first, so that a standing can be
+ * found with a binary search instead of ranking every team again.  Only 
+ * the teams whose totals change are moved.
+ *
+ * A team's standing is one more than the number of teams with a higher
+ * total, so tied teams share a standing and the next one is skipped 
+ * (1, 1, 3).  Totals from other rooms can be added by value to rank 
+ * teams on a combined leaderboard.
+ *
+ * @author Ted Meyers
+ * @since August 2012
+ */
+public class TeamStandings {
+	private static final int DEFAULT_CAPACITY = 64;
+	
+	private long[] myTotals;		// highest first
+	private int mySize;
+	private long[] myTeamTotals;	// the total each team is sorted by, indexed by QuizBoxData slot
+	private boolean[] myHasTeam;
+	
+	public TeamStandings() {
+		myTotals = new long[DEFAULT_CAPACITY];
+		mySize = 0;
+		myTeamTotals = new long[DEFAULT_CAPACITY];
+		myHasTeam = new boolean[DEFAULT_CAPACITY];
+	}
+	
+	public synchronized int size() {
+		return mySize;
+	}
+	
+	/**
+	 * Adds the team with its current total; does nothing if it is already here
+	 */
+	public synchronized void add(QuizTeam qt) {
+		int slot = qt.getQuizBoxData().getSlot();
+		if (slot >= myHasTeam.length) {
+			int n = Math.max(slot+1, myHasTeam.length*2);
+			myTeamTotals = Arrays.copyOf(myTeamTotals, n);
+			myHasTeam = Arrays.copyOf(myHasTeam, n);
+		}
+		if (myHasTeam[slot]) return;
+		long total = qt.getTotalPoints();
+		myTeamTotals[slot] = total;
+		myHasTeam[slot] = true;
+		add(total);
+	}
+	
+	/**
+	 * Moves the team if its total has changed; does nothing if it was never added
+	 */
+	public synchronized void update(QuizTeam qt) {
+		int slot = qt.getQuizBoxData().getSlot();
+		if (slot >= myHasTeam.length || !myHasTeam[slot]) return;
+		long total = qt.getTotalPoints();
+		long old = myTeamTotals[slot];
+		if (total == old) return;
+		remove(old);
+		add(total);
+		myTeamTotals[slot] = total;
+	}
+	
+	/**
+	 * Adds a total that does not belong to a team in this room
+	 */
+	public synchronized void add(long total) {
+		if (mySize == myTotals.length) myTotals = Arrays.copyOf(myTotals, mySize*2);
+		int i = countAbove(total);
+		System.arraycopy(myTotals, i, myTotals, i+1, mySize-i);
+		myTotals[i] = total;
+		mySize++;
+	}
+	
+	/**
+	 * @return false if there is no such total
+	 */
+	public synchronized boolean remove(long total) {
+		int i = countAbove(total);
+		if (i == mySize || myTotals[i] != total) return false;
+		System.arraycopy(myTotals, i+1, myTotals, i, mySize-i-1);
+		mySize--;
+		return true;
+	}
+	
+	/**
+	 * @return the standing the total would have, 1 for the highest
+	 */
+	public synchronized int getStanding(long total) {
+		return countAbove(total) + 1;
+	}
+	
+	/**
+	 * @return the team's standing, 0 if it was never added
+	 */
+	public synchronized int getStanding(QuizTeam qt) {
+		int slot = qt.getQuizBoxData().getSlot();
+		if (slot >= myHasTeam.length || !myHasTeam[slot]) return 0;
+		return countAbove(myTeamTotals[slot]) + 1;
+	}
+	
+	/**
+	 * @param i 0 for the highest
+	 */
+	public synchronized long getTotalAt(int i) {
+		if (i < 0 || i >= mySize) throw new IndexOutOfBoundsException("Index: " + i + ", size: " + mySize);
+		return myTotals[i];
+	}
+	
+	/**
+	 * @return the number of totals higher than the given total
+	 */
+	private int countAbove(long total) {
+		int lo = 0;
+		int hi = mySize;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (myTotals[mid] > total) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+}
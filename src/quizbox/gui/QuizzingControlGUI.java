@@ -13,6 +13,7 @@ import java.awt.CardLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
@@ -27,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -39,25 +41,37 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SpringLayout;
 
+import quizbox.ConfigChangeListener;
+import quizbox.ConfigWatcher;
+import quizbox.ConnectionStateListener;
+import quizbox.PortDiscovery;
+import quizbox.QuizzingConfig;
 import quizbox.QuizzingConnection;
 import quizbox.QuizzingControlManager;
 import quizbox.QuizzingHelper;
 import quizbox.QuizzingProperties;
+import quizbox.data.PlacementSnapshot;
+import quizbox.data.Points;
 import quizbox.data.QuizBoxAddress;
 import quizbox.data.QuizBoxData;
 import quizbox.data.QuizConstants;
-import quizbox.data.QuizMessage;
+import quizbox.data.QuizMessageDecoder;
 import quizbox.data.QuizTeam;
+import quizbox.data.RemoteClockEstimator;
+import quizbox.io.BatchSerialListenerInterface;
 import quizbox.io.IOutilities;
-import quizbox.io.SerialListenerInterface;
 import quizbox.util.Level;
 import quizbox.util.Logger;
+import quizbox.util.PipelineLatency;
 
 
-public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialListenerInterface {
+public class QuizzingControlGUI extends JFrame implements QuizConstants, BatchSerialListenerInterface, 
+		ConnectionStateListener, ConfigChangeListener {
 	private static final long serialVersionUID = 499006117212801232L;
 	private final static Logger log = Logger.getLogger(QuizzingControlGUI.class);	
 	
@@ -74,6 +88,9 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	private static final String LOCKED_STATUS_STR = "Input: Locked";
 	private static final String ACTIONS_BTN_STR = "Actions";
 
+	// How long a note about a reloaded properties file stays in the status
+	private static final long CONFIG_NOTICE_MSEC = 30000;
+
 	private static final String NO_CARD = "none";
 	private static final String SP_CARD = "speed";
 	private static final String MC_CARD = "multchoice";
@@ -83,7 +100,14 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	private QuizzingControlManager myControl;
 	private QuizzingDisplayGUI myDisplayWindow;
 	private QuizzingConnection myQuizConnection;
+	private ConfigWatcher myConfigWatcher;
+	private volatile String myConfigNotice;
+	private volatile long myConfigNoticeTime;
     private Set<QuizBoxAddress> myWarnedAddresses = new HashSet<QuizBoxAddress>();
+    private final QuizMessageDecoder myMessageDecoder = new QuizMessageDecoder();
+    private final RemoteClockEstimator myRemoteClocks = new RemoteClockEstimator();
+    // read time of the oldest press not yet shown by a full GUI refresh, 0 if none
+    private final AtomicLong myUnrefreshedPressTime = new AtomicLong(0);
 		
     private Map<QuizBoxAddress, QuizTeamControlGuiItem> myTeamGuiItems;
 	private List<JComponent> myComponentsList;
@@ -130,6 +154,9 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 		myLastQT = NONE_QUESTION_TYPE;
 		
 		QuizzingHelper.setupBeep(myProps.getBeepFilename());
+		myProps.addConfigChangeListener(this);
+		myConfigWatcher = new ConfigWatcher(myProps);
+		myConfigWatcher.start();
 		
 		if (myQuizConnection != null && !myQuizConnection.isConnected()) {
 			String ports = "";
@@ -494,7 +521,7 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 			isQuizOut = updateQuizoutLabel(addr, cnt, isQuizOut);
 			JLabel quizout = item.myQuizoutCB;
 			if (check(quizout, addr)) {
-				int qcnt = myProps.getQuizOutCount();
+				int qcnt = myProps.getConfig().getQuizOutCount();
 				if (isQuizOut || (cnt >= qcnt)) {
 					quizout.setEnabled(true);
 					quizout.setForeground(Color.red);
@@ -592,6 +619,8 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 					}
 				}
 				updateControlButtons();
+				long pressTime = myUnrefreshedPressTime.getAndSet(0);
+				if (pressTime != 0) PipelineLatency.PRESS_TO_REFRESH.recordSince(pressTime);
 			}
 			if (sleep_ms > 0) {
 			    sleep(sleep_ms);
@@ -606,7 +635,12 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 		JTextField atf = item.myAnswerTF;
 		if (check(atf, addr)) atf.setText(myControl.getAnswerString(addr));
 		JTextField ptf = item.myPlaceTF;
-		if (check(ptf, addr)) ptf.setText(myControl.getPlaceString(addr));
+		if (check(ptf, addr)) {
+			PlacementSnapshot places = myControl.getPlacementSnapshot();
+			ptf.setText(myControl.getPlaceMarkString(places, addr));
+			String gap = myControl.getPlaceGapString(places, addr);
+			ptf.setToolTipText(gap.length() > 0 ? gap + " msec after the place before" : null);
+		}
 		updatePoints(addr);
 		updateGUIResult(addr);
 		updateQuizoutLabel(addr);
@@ -629,9 +663,22 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 			}
 			reset(false);
 		}
+		// Between questions, nothing depends on the old settings
+		if (myProps.hasPendingConfig() && !myIsDisplayed && 
+			myControl.getQuestionType() == NONE_QUESTION_TYPE) {
+			myProps.applyPendingConfig();
+		}
 		myQuizHelper.updateConnectionStatus();
 		updateAllConnectionStatus(false);
 		String status = myQuizConnection.getConnectionMessage();
+		String notice = myConfigNotice;
+		if (notice != null) {
+			if (System.currentTimeMillis() - myConfigNoticeTime < CONFIG_NOTICE_MSEC) {
+				status += "  |  " + notice;
+			} else {
+				myConfigNotice = null;
+			}
+		}
 		myStatusField.setText(status);
 	}
 	
@@ -801,8 +848,9 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	
 	private void inBetweenDisplayUpdate() {
 		int qtyp = myControl.getQuestionType();
-		boolean isMC = (qtyp == MC_QUESTION_TYPE) && myProps.getDisplayCountMultChoice();
-		boolean isSP = (qtyp == SPEED_QUESTION_TYPE) && myProps.getDisplayCountSpeed();
+		QuizzingConfig config = myProps.getConfig();
+		boolean isMC = (qtyp == MC_QUESTION_TYPE) && config.getDisplayCountMultChoice();
+		boolean isSP = (qtyp == SPEED_QUESTION_TYPE) && config.getDisplayCountSpeed();
 		if (isMC || isSP) {
 			int i = 0;
 			for (QuizTeam qt : QuizTeam.getSortedTeams()) {
@@ -815,18 +863,19 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	}
 	
 	private void updateDisplayWindow(int quizoutAdj) {
-		boolean isSpeedPlace = myProps.getDisplaySpeedPlace();
+		boolean isSpeedPlace = myProps.getConfig().getDisplaySpeedPlace();
 		boolean isMultChoice = (myControl.getQuestionType() == MC_QUESTION_TYPE);
 		updateDisplayGUIQuestionNumber();
 		updateDisplayGUIQuestionType();
 		updateDisplayGUIAnnouncement();
 		updateDisplayGUICorrectAnswer();
 		updateDisplayGUIPossiblePoints();
+		PlacementSnapshot places = myControl.getPlacementSnapshot();
 		for (QuizBoxAddress addr : QuizTeam.keySet()) {
-			double points = myControl.calcRealNormalPoints(addr);
-			double bonus = myControl.calcRealBonusPoints(addr, quizoutAdj);
+			long points = myControl.calcRealNormalPoints(addr);
+			long bonus = myControl.calcRealBonusPoints(addr, quizoutAdj);
 			String answer = myControl.getAnswerString(addr);
-			String place = myControl.getPlaceString(addr);
+			String place = myControl.getPlaceString(places, addr);
 			myDisplayWindow.setPoints(addr, points);
 			myDisplayWindow.setBonus(addr, points, bonus);
 			if (isMultChoice) {
@@ -893,15 +942,15 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	
 	private void updatePoints(QuizBoxAddress addr) {
 		myControl.updateScoresOnlyIfMultChoice();
-		double points = myControl.calcRealNormalPoints(addr);
-		double bonus = myControl.calcRealBonusPoints(addr, 1);
-		double total = myControl.getCurrentTotal(addr);
+		long points = myControl.calcRealNormalPoints(addr);
+		long bonus = myControl.calcRealBonusPoints(addr, 1);
+		long total = myControl.getCurrentTotal(addr);
 		updatePointsLabel(addr, points, bonus, total);
 	}
 	
-	private void updatePointsLabel(QuizBoxAddress addr, double points, double bonus, double total) {
-		String p_str = QuizzingHelper.formatPoints(points+bonus);
-		String t_str = QuizzingHelper.formatPoints(total);
+	private void updatePointsLabel(QuizBoxAddress addr, long points, long bonus, long total) {
+		String p_str = Points.format(points+bonus);
+		String t_str = Points.format(total);
 		String s = "[points: " + p_str + " | " + t_str + "]";
 		QuizTeamControlGuiItem item = myTeamGuiItems.get(addr);
 		JLabel p = item.myPointsLabel;
@@ -922,7 +971,7 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	
 	private boolean updateQuizoutLabel(QuizBoxAddress addr, int count, boolean isQuizout) {
 		String s = "[" + count + "] quizout";
-		isQuizout = (isQuizout || count >= myProps.getQuizOutCount());
+		isQuizout = (isQuizout || count >= myProps.getConfig().getQuizOutCount());
 		if (isQuizout) {
 			s = "[x] quizout";
 		}
@@ -1005,6 +1054,7 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	private void resetInternal(boolean isFull) {
 		myIsDisplayed = false;
 		if (isFull) {
+			myProps.applyPendingConfig();
 			myControl.nextQuestionNumber();
 			myQuestionTypeGroup.clearSelection();
 			myAnswerGroup.clearSelection();
@@ -1038,6 +1088,7 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	}
 	
     private void quit() {
+    	myConfigWatcher.stop();
     	myControl.close();
 	    sleep(QUIT_SLEEP_MSEC);
 	    System.exit(0);
@@ -1083,19 +1134,24 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
     }
 
     private void updateAllConnectionStatus(boolean isReset) {
+		PlacementSnapshot places = myControl.getPlacementSnapshot();
 		for (QuizBoxAddress addr : QuizTeam.keySet()) {
-			updateConnectionStatus(addr, isReset);
+			updateConnectionStatus(places, addr, isReset);
 		}
     }
 	
 	private void updateConnectionStatus(QuizBoxAddress addr, boolean isReset) {
+		updateConnectionStatus(myControl.getPlacementSnapshot(), addr, isReset);
+	}
+	
+	private void updateConnectionStatus(PlacementSnapshot places, QuizBoxAddress addr, boolean isReset) {
 		int i = myQuizHelper.getConnectStatusValue(addr);
 		if (i == SELECTED_STATUS && isReset) {
 			setConnectionStatus(addr, CONNECTED_STATUS);
 		} else if (i == NOT_CONNECTED_STATUS) {
 			setConnectionStatus(addr, i);
 		} else {
-			int p = myControl.getPlaceValue(addr);
+			int p = myControl.getPlaceValue(places, addr);
 			if (p == 1) i |= SELECTED_1ST_STATUS;
 			else if (p == 2) i |= SELECTED_2ND_STATUS;
 			else if (p == 3) i |= SELECTED_3RD_STATUS;
@@ -1129,11 +1185,65 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
     	return b;
     }
 
+	@Override
+	public void connectionLost() {
+		log.warn("Lost the quizzing device, the current question is kept");
+	}
+	
+	@Override
+	public void connectionRestored(long outageMsec) {
+		QuizzingControlManager control = myControl;
+		if (control != null) control.resendLockState();
+	}
+	
+	@Override
+	public void configChanged(QuizzingConfig old, QuizzingConfig config, Set<String> changed) {
+		myIsBeepEnabled = config.getIsBeepEnabled();
+		if (!config.getBeepFilename().equals(old.getBeepFilename())) {
+			QuizzingHelper.setupBeep(config.getBeepFilename());
+		}
+		myRoundTitleLabel.setText(config.getQuizTitle());
+		if (myControl.getQuestionType() == NONE_QUESTION_TYPE) {
+			myMCQuestionButton.setEnabled(config.getMultChoiceSelectionEnabled());
+			mySpeedQuestionButton.setEnabled(config.getSpeedSelectionEnabled());
+		}
+		
+		List<String> reconnect = new ArrayList<String>();
+		List<String> restart = new ArrayList<String>();
+		for (String key : changed) {
+			if (QuizzingConfig.RECONNECT_KEYS.contains(key)) reconnect.add(key);
+			else if (QuizzingConfig.RESTART_KEYS.contains(key)) restart.add(key);
+		}
+		String notice = "Settings reloaded";
+		if (!reconnect.isEmpty()) notice += ", reconnect to use " + reconnect;
+		if (!restart.isEmpty()) notice += ", restart to use " + restart;
+		myConfigNotice = notice;
+		myConfigNoticeTime = System.currentTimeMillis();
+	}
+	
+	@Override
+	public void processLines(String[] lines, long[] readTimes, int count) {
+		boolean isUpdated = false;
+		for (int i=0; i<count; i++) {
+			isUpdated |= processLineInternal(lines[i], readTimes[i]);
+		}
+		if (isUpdated) updateControlButtons();
+	}
+
 	@Override
 	public void processLine(String line) {
-		QuizMessage msg = new QuizMessage(line);
-		if (msg.isButtonMessage() || msg.isLinkStatusMessage()) {
-			QuizBoxAddress address = msg.getAddress();
+		if (processLineInternal(line, System.nanoTime())) updateControlButtons();
+	}
+	
+	/**
+	 * @return true if a box was updated, and the control buttons need updating
+	 */
+	private boolean processLineInternal(String line, long readTime) {
+		// Only called from the listener thread, so the decoder can be reused
+		QuizMessageDecoder msg = myMessageDecoder;
+		msg.decode(line, readTime);
+		if ((msg.isButtonMessage() || msg.isLinkStatusMessage()) && msg.hasAddress()) {
+			QuizBoxAddress address = msg.getQuizBoxAddress();
 			if (address.isValidAddress()) {
 				QuizBoxData data = QuizBoxData.getQuizBoxData(address);
 				if (data != null) {
@@ -1141,18 +1251,35 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 					int lq1 = msg.getLQ1();
 					data.resetConnectionTime();
 					data.setLQ(lq1);
-					if (!myControl.getIsLocked()) {
+					// Place by when the remote says the button was pressed, if it says
+					long pressTime = readTime;
+					if (msg.hasRemoteTime()) {
+						if (msg.isButtonStatusMessage()) {
+							myRemoteClocks.update(msg.getAddress(), msg.getRemoteTime(), readTime);
+						} else if (msg.isButtonSelectMessage()) {
+							pressTime = myRemoteClocks.toPressTime(msg.getAddress(), msg.getRemoteTime(), readTime);
+						}
+					}
+					// Use the lock state from when the press arrived, not from now
+					if (!myControl.wasLockedAt(readTime)) {
 						data.setButtonState(btn);
 						if (myControl != null) {
 							myControl.setCurrentAnswer(address, btn);
-							myControl.setCurrentPlace(address);
+							myControl.setCurrentPlaceByTime(address, pressTime);
 						}
 					}
 					updateGUI(address);
-					updateControlButtons();
+					if (msg.isButtonSelectMessage()) {
+						PipelineLatency.PRESS_TO_GUI.recordSince(readTime);
+						myUnrefreshedPressTime.compareAndSet(0, readTime);
+					}
 					if (log.isDebugEnabled()) {
-						log.debug("Button press, box: " + address.getAddressString() + " = " + btn);
+						long latency = System.nanoTime() - readTime;
+						log.debug("Button press, box: " + address.getAddressString() + " = " + btn + 
+							", processed " + (latency/1000) + " usec after arrival, pressed " + 
+							((readTime - pressTime)/1000) + " usec before");
 					}
+					return true;
 				} else {
 					log.warn("Unknown address: " + address);
 					for (QuizBoxAddress addr : QuizBoxData.keySet()) {
@@ -1161,6 +1288,7 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 				}
 			}
 		}
+		return false;
 	}
 	
 	private QuizzingConnection openQuizzingConnection() {
@@ -1168,9 +1296,18 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 		try {
 			int bps = myProps.getBaud();
 			String port = myProps.getComPort();
+			if (myProps.getIsPortDiscovery()) {
+				PortDiscovery discovery = new PortDiscovery(bps, myProps.getPortCacheFile());
+				discovery.setProbeTimeout(myProps.getProbeTimeout());
+				String found = discovery.findPort(port);
+				if (found != null) port = found;
+			}
 			qc = new QuizzingConnection();
 			boolean connected = qc.open(bps,port);
-			if (connected) qc.addMessageListener(this);
+			if (connected) {
+				qc.addMessageListener(this);
+				qc.addConnectionStateListener(this);
+			}
 		} catch (Exception e) {
 			log.error("Unable to open quizzing connection", e);
 		}
@@ -1241,6 +1378,15 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	    	}
 		);
 	    
+	    JButton latency = new JButton("Latency");
+	    latency.addActionListener(
+	    	new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					doDiagnostics();
+				}
+	    	}
+		);
+	    
 	    JPanel panel = new JPanel(new BorderLayout());
 	    JPanel btnPanel = new JPanel(new GridLayout(4,2));
 	    panel.add(new JLabel("Send command to all quiz boxes:"), BorderLayout.NORTH);
@@ -1251,12 +1397,30 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 	    btnPanel.add(lock);
 	    btnPanel.add(clear);
 	    btnPanel.add(power);
+	    btnPanel.add(latency);
 	    
 	    JOptionPane.showMessageDialog(this,
 	    	    panel,
 	    	    "Action Command",
 	    	    JOptionPane.PLAIN_MESSAGE);
     }
+    
+    /**
+     * Shows how long button presses take at each stage, so the processing
+     * sleep time can be set from real numbers
+     */
+    private void doDiagnostics() {
+    	String sleep = "Processing sleep: " + myProps.getProcessingSleepTime(PROCESSING_DEF_SLEEP_MSEC) + 
+    		" msec, full GUI refresh every " + UPDATE_GUI_RATE + " loops\n\n";
+    	JTextArea text = new JTextArea(sleep + PipelineLatency.getReport());
+    	text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    	text.setEditable(false);
+    	
+    	Object[] options = { "OK", "Reset" };
+	    int choice = JOptionPane.showOptionDialog(this, new JScrollPane(text), "Press Latency",
+	    	JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
+	    if (choice == 1) PipelineLatency.reset();
+    }
 
 	/**
 	 * @param args
@@ -1289,7 +1453,16 @@ public class QuizzingControlGUI extends JFrame implements QuizConstants, SerialL
 			System.out.println("Using properties file: '" + fname + "'");
 		}
 
-		QuizzingControlGUI obj = new QuizzingControlGUI(fname);
+		QuizzingControlGUI obj;
+		try {
+			obj = new QuizzingControlGUI(fname);
+		} catch (IllegalArgumentException e) {
+			log.error("Bad properties file", e);
+			JOptionPane.showMessageDialog(null, e.getMessage(), 
+					"Quizzing Problem", JOptionPane.ERROR_MESSAGE);
+			System.exit(1);
+			return;
+		}
 	    obj.validate();
 	    obj.setVisible(true);	
 	    sleep(300);
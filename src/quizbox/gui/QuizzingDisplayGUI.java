@@ -23,8 +23,8 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
-import quizbox.QuizzingHelper;
 import quizbox.QuizzingProperties;
+import quizbox.data.Points;
 import quizbox.data.QuizBoxAddress;
 import quizbox.data.QuizTeam;
 import quizbox.data.QuizConstants;
@@ -98,17 +98,20 @@ public class QuizzingDisplayGUI extends JFrame implements QuizConstants {
 		item.myAnswerLabel.setText(answer);
 	}
 	
-	public void setPoints(QuizBoxAddress addr, double points) {
-		String s = QuizzingHelper.formatPoints(points);
+	/**
+	 * @param points in quarter points, see Points
+	 */
+	public void setPoints(QuizBoxAddress addr, long points) {
+		String s = Points.format(points);
 		QuizTeamDisplayGuiItem item = myTeamGuiItems.get(addr);
 		item.myPointsLabel.setText(s);
 	}
 	
-	public void setBonus(QuizBoxAddress addr, double points, double bonus) {
+	public void setBonus(QuizBoxAddress addr, long points, long bonus) {
 		QuizTeamDisplayGuiItem item = myTeamGuiItems.get(addr);
 		if (bonus > 0) {
-			String s1 = QuizzingHelper.formatPoints(points);
-			String s2 = QuizzingHelper.formatPoints(bonus);
+			String s1 = Points.format(points);
+			String s2 = Points.format(bonus);
 			item.myPointsLabel.setText(s1 + "+" + s2);
 		} else {
 			item.myBonusLabel.setText("");			
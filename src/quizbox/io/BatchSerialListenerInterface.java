@@ -0,0 +1,23 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+
+/**
+ * A listener that takes every line received since the last dispatch in 
+ * one call.  Listeners that only implement SerialListenerInterface still
+ * get one processLine call per line.
+ */
+public interface BatchSerialListenerInterface extends SerialListenerInterface {
+	/**
+	 * @param lines the lines, oldest first; the array is reused after the call returns
+	 * @param readTimes the System.nanoTime() each line was read from the device
+	 * @param count the number of lines in the arrays
+	 */
+	public void processLines(String[] lines, long[] readTimes, int count);
+}
@@ -0,0 +1,155 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import quizbox.util.WakeupSignal;
+
+
+/**
+ * Growable circular byte buffer with a stream on each end, for passing 
+ * bytes between threads.  Reads block until there is data or the queue
+ * is closed.  Each write also gives the data signal, which is how the 
+ * transports tell InputStreamThread about new data.
+ */
+class ByteQueue {
+	private final WakeupSignal mySignal;
+	private final InputStream myInput;
+	private final OutputStream myOutput;
+	private byte[] myBuffer;
+	private int myHead;
+	private int mySize;
+	private boolean myIsClosed;
+	
+	ByteQueue(int capacity, WakeupSignal signal) {
+		mySignal = signal;
+		myBuffer = new byte[capacity];
+		myHead = 0;
+		mySize = 0;
+		myIsClosed = false;
+		
+		myInput = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				int n = ByteQueue.this.read(b, 0, 1);
+				return (n <= 0) ? -1 : (b[0] & 0xFF);
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return ByteQueue.this.read(b, off, len);
+			}
+			@Override
+			public int available() {
+				return ByteQueue.this.available();
+			}
+			@Override
+			public void close() {
+				ByteQueue.this.close();
+			}
+		};
+		
+		myOutput = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				ByteQueue.this.write(new byte[] {(byte)b}, 0, 1);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				ByteQueue.this.write(b, off, len);
+			}
+			@Override
+			public void close() {
+				ByteQueue.this.close();
+			}
+		};
+	}
+	
+	public InputStream getInputStream() {
+		return myInput;
+	}
+	
+	public OutputStream getOutputStream() {
+		return myOutput;
+	}
+	
+	public synchronized int available() {
+		return mySize;
+	}
+	
+	public synchronized boolean isClosed() {
+		return myIsClosed;
+	}
+	
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len <= 0) return;
+		synchronized (this) {
+			if (myIsClosed) throw new IOException("Stream is closed");
+			if (mySize + len > myBuffer.length) grow(mySize + len);
+			int tail = (myHead + mySize) % myBuffer.length;
+			int n = Math.min(len, myBuffer.length - tail);
+			System.arraycopy(b, off, myBuffer, tail, n);
+			System.arraycopy(b, off + n, myBuffer, 0, len - n);
+			mySize += len;
+			notifyAll();
+		}
+		wakeUp();
+	}
+	
+	/**
+	 * Waits for at least one byte
+	 * 
+	 * @return the number of bytes read, or -1 if the queue is closed and empty
+	 */
+	public synchronized int read(byte[] b, int off, int len) throws IOException {
+		if (len <= 0) return 0;
+		try {
+			while (mySize == 0 && !myIsClosed) wait();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for data");
+		}
+		if (mySize == 0) return -1;
+		int count = Math.min(len, mySize);
+		int n = Math.min(count, myBuffer.length - myHead);
+		System.arraycopy(myBuffer, myHead, b, off, n);
+		System.arraycopy(myBuffer, 0, b, off + n, count - n);
+		myHead = (myHead + count) % myBuffer.length;
+		mySize -= count;
+		return count;
+	}
+	
+	/**
+	 * Any bytes left can still be read, after that reads return -1 
+	 */
+	public void close() {
+		synchronized (this) {
+			myIsClosed = true;
+			notifyAll();
+		}
+		wakeUp();
+	}
+	
+	private void wakeUp() {
+		if (mySignal != null) mySignal.signal();
+	}
+	
+	private void grow(int min) {
+		int n = myBuffer.length * 2;
+		while (n < min) n *= 2;
+		byte[] buf = new byte[n];
+		int first = Math.min(mySize, myBuffer.length - myHead);
+		System.arraycopy(myBuffer, myHead, buf, 0, first);
+		System.arraycopy(myBuffer, 0, buf, first, mySize - first);
+		myBuffer = buf;
+		myHead = 0;
+	}
+}
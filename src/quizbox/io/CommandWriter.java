@@ -0,0 +1,219 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import quizbox.util.Logger;
+
+
+/**
+ * Sends commands to the base station from its own thread, so callers 
+ * (usually the Swing thread) never wait on the serial port.  Commands sent
+ * within a short window of each other go out in one write, and commands 
+ * that are made pointless by the next one are dropped.  The base station
+ * handles several command characters in one read.
+ * 
+ * Commands are the encoded bytes of a line, ending with a newline, see
+ * QuizMessage.getEncodedBytes().  The arrays are never modified.
+ */
+public class CommandWriter implements Runnable {
+	private final static Logger log = Logger.getLogger(CommandWriter.class);
+	
+	public static final long DEFAULT_WINDOW_MSEC = 1;
+	
+	// Commands that only set state on the base and remotes, repeating one is a no-op
+	private static final String STATE_COMMANDS = "CQPLlRrTtDd";
+	// Set the mode without clearing, so they are overridden by any following mode set
+	private static final String SET_MODE_COMMANDS = "LRTD";
+	// The base reads a variable number of characters after these, so they end a write
+	private static final String TERMINAL_COMMANDS = "qSNcBAM";
+	
+	private final Transport myTransport;
+	private final long myWindowNanos;
+	private final List<byte[]> myPending;	// guarded by itself
+	private final List<byte[]> myBatch;		// writer thread only
+	private byte[] myBuffer;
+	private volatile boolean myIsDone;
+	private Thread myThread;
+	private long myCommandCount;
+	private long myDroppedCount;
+	private long myWriteCount;
+	
+	public CommandWriter(Transport transport) {
+		this(transport, DEFAULT_WINDOW_MSEC, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @param transport
+	 * @param window how long to wait for more commands after the first one
+	 * @param unit
+	 */
+	public CommandWriter(Transport transport, long window, TimeUnit unit) {
+		myTransport = transport;
+		myWindowNanos = unit.toNanos(window);
+		myPending = new ArrayList<byte[]>();
+		myBatch = new ArrayList<byte[]>();
+		myBuffer = new byte[256];
+		myIsDone = false;
+		myCommandCount = 0;
+		myDroppedCount = 0;
+		myWriteCount = 0;
+	}
+	
+	public void start() {
+		myThread = new Thread(this);
+		myThread.setName("CommandWriter");
+		myThread.setDaemon(true);
+		myThread.start();
+	}
+	
+	/**
+	 * Queues the command and returns without waiting for it to be written
+	 */
+	public void send(byte[] command) {
+		if (command == null || command.length == 0) return;
+		synchronized (myPending) {
+			if (myIsDone) {
+				log.warn("Command writer is closed, not sending: '" + toString(command) + "'");
+				return;
+			}
+			myPending.add(command);
+			myPending.notify();
+		}
+	}
+	
+	/**
+	 * Writes anything still queued, then stops the writer thread
+	 */
+	public void close() {
+		synchronized (myPending) {
+			myIsDone = true;
+			myPending.notify();
+		}
+		if (myThread != null && myThread != Thread.currentThread()) {
+			try {
+				myThread.join(500);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (myDroppedCount > 0) {
+			log.info("Sent " + myCommandCount + " commands in " + myWriteCount + 
+				" writes, dropped " + myDroppedCount + " redundant commands");
+		}
+	}
+	
+	public void run() {
+		try {
+			while (true) {
+				synchronized (myPending) {
+					while (myPending.isEmpty() && !myIsDone) myPending.wait();
+					if (myPending.isEmpty()) break;
+				}
+				// Give the caller a moment to send any commands that go with this one
+				if (myWindowNanos > 0 && !myIsDone) TimeUnit.NANOSECONDS.sleep(myWindowNanos);
+				
+				synchronized (myPending) {
+					myBatch.addAll(myPending);
+					myPending.clear();
+				}
+				myCommandCount += myBatch.size();
+				myDroppedCount += collapse(myBatch);
+				writeBatch();
+				myBatch.clear();
+			}
+		} catch (InterruptedException e) {
+			log.debug("Command writer was interrupted");
+		}
+	}
+	
+	private void writeBatch() {
+		int len = 0;
+		for (int i=0; i<myBatch.size(); i++) {
+			byte[] cmd = myBatch.get(i);
+			if (len + cmd.length > myBuffer.length) {
+				myBuffer = Arrays.copyOf(myBuffer, Math.max(myBuffer.length*2, len + cmd.length));
+			}
+			System.arraycopy(cmd, 0, myBuffer, len, cmd.length);
+			len += cmd.length;
+			if (TERMINAL_COMMANDS.indexOf(cmd[0]) >= 0) {
+				write(len);
+				len = 0;
+			}
+		}
+		if (len > 0) write(len);
+	}
+	
+	private void write(int len) {
+		try {
+			IOutilities.sendOutput(myTransport, myBuffer, len);
+			myWriteCount++;
+		} catch (IOException e) {
+			log.warn("Problem sending commands: '" + toString(myBuffer, len) + "'", e);
+		}
+	}
+	
+	/**
+	 * Removes commands that have no effect because of the command after them
+	 * 
+	 * @return the number of commands removed
+	 */
+	static int collapse(List<byte[]> commands) {
+		int removed = 0;
+		int i = 0;
+		while (i < commands.size() - 1) {
+			if (isOverriddenBy(commands.get(i), commands.get(i+1))) {
+				commands.remove(i);
+				removed++;
+				if (i > 0) i--;
+			} else {
+				i++;
+			}
+		}
+		return removed;
+	}
+	
+	private static boolean isOverriddenBy(byte[] cmd, byte[] next) {
+		char c = (char)cmd[0];
+		char n = (char)next[0];
+		if (c == 'U' && n == 'U') {
+			// Display updates set all of the LEDs
+			return true;
+		}
+		if (commandLength(cmd) != 1 || commandLength(next) != 1) {
+			return false;
+		}
+		if (c == n && STATE_COMMANDS.indexOf(c) >= 0) {
+			return true;
+		}
+		// Any mode change after a plain mode set replaces it; 'l' always clears,
+		// so it is the only clearing mode that does not depend on the mode before it
+		return SET_MODE_COMMANDS.indexOf(c) >= 0 && (SET_MODE_COMMANDS.indexOf(n) >= 0 || n == 'l');
+	}
+	
+	private static int commandLength(byte[] cmd) {
+		int len = cmd.length;
+		while (len > 0 && (cmd[len-1] == '\n' || cmd[len-1] == '\r')) len--;
+		return len;
+	}
+	
+	private static String toString(byte[] b) {
+		return toString(b, b.length);
+	}
+	
+	private static String toString(byte[] b, int len) {
+		char[] c = new char[len];
+		for (int i=0; i<len; i++) c[i] = (char)(b[i] & 0xFF);
+		return new String(c).trim();
+	}
+}
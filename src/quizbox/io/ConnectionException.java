@@ -10,6 +10,10 @@ package quizbox.io;
 public class ConnectionException extends Exception {
 	private static final long serialVersionUID = 3279731177153764054L;
 
+	public ConnectionException(String message) {
+		super(message);
+	}
+
 	public ConnectionException(String message, Throwable cause) {
 		super(message, cause);
 	}
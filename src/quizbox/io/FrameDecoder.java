@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import quizbox.util.Helper;
+import quizbox.util.Logger;
+
+/**
+ * Splits the serial byte stream into '(' ... ')' frames.  Reads whatever
+ * is available in one call into a reusable buffer, and keeps a partially
+ * received frame until the rest of it arrives on a later read.  Never blocks
+ * waiting for the end of a frame.
+ *
+ * Not thread safe, there should be one decoder per reading thread.
+ */
+public class FrameDecoder {
+	private final static Logger log = Logger.getLogger(FrameDecoder.class);
+
+	public static final char FRAME_START = '(';
+	public static final char FRAME_END = ')';
+	public static final int DEFAULT_READ_SIZE = 1024;
+	public static final int DEFAULT_MAX_FRAME_SIZE = 256;
+
+	private final byte[] myReadBuffer;
+	private final char[] myFrame;
+	private int myFrameLength;
+	private boolean myIsInFrame;
+
+	public FrameDecoder() {
+		this(DEFAULT_READ_SIZE, DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	public FrameDecoder(int readSize, int maxFrameSize) {
+		myReadBuffer = new byte[readSize];
+		myFrame = new char[maxFrameSize];
+		reset();
+	}
+
+	/**
+	 * Drops any partially received frame
+	 */
+	public void reset() {
+		myFrameLength = 0;
+		myIsInFrame = false;
+	}
+
+	public boolean isInFrame() {
+		return myIsInFrame;
+	}
+
+	/**
+	 * Reads all bytes currently available from the stream and adds each
+	 * completed frame (without the parentheses) to the list.
+	 *
+	 * @param input
+	 * @param frames receives the completed frames
+	 * @return the number of bytes read, zero if nothing was available
+	 * @throws IOException
+	 */
+	public int read(InputStream input, List<String> frames) throws IOException {
+		int total = 0;
+		int avail = input.available();
+		while (avail > 0) {
+			int n = input.read(myReadBuffer, 0, Math.min(avail, myReadBuffer.length));
+			if (n <= 0) break;
+			decode(myReadBuffer, 0, n, frames);
+			total += n;
+			avail = input.available();
+		}
+		return total;
+	}
+
+	/**
+	 * Scans the bytes for frames, any bytes outside of a frame are skipped.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param frames receives the completed frames
+	 */
+	public void decode(byte[] data, int offset, int length, List<String> frames) {
+		int end = offset + length;
+		for (int i=offset; i<end; i++) {
+			char c = (char)(data[i] & 0xFF);
+			if (!myIsInFrame) {
+				if (c == FRAME_START) {
+					myIsInFrame = true;
+					myFrameLength = 0;
+				}
+			} else if (c == FRAME_END) {
+				String frame = new String(myFrame, 0, myFrameLength);
+				if (log.isDebugEnabled()) {
+					log.debug("Received input: '" + Helper.formatLine(frame) + "'");
+				}
+				frames.add(frame);
+				reset();
+			} else if (myFrameLength < myFrame.length) {
+				myFrame[myFrameLength++] = c;
+			} else {
+				log.warn("Frame is longer than " + myFrame.length + " bytes, dropping it");
+				reset();
+			}
+		}
+	}
+}
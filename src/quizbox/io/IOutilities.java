@@ -10,6 +10,7 @@ package quizbox.io;
 import gnu.io.CommPortIdentifier;
 
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -21,7 +22,50 @@ import quizbox.util.Logger;
 public class IOutilities {
 	private final static Logger log = Logger.getLogger(IOutilities.class);
 	
-	public static void sendOutput(SerialConnection connection, String data) throws IOException {
+	public static final String TCP_PREFIX = "tcp:";
+	public static final String PIPE_PREFIX = "pipe:";
+	public static final String TTY_PREFIX = "tty:";
+	
+	/**
+	 * Opens the transport for the port name: "tcp:host:port" for a socket,
+	 * "pipe:path" or "pipe:inPath,outPath" for a pseudo terminal or named 
+	 * pipes, "tty:/dev/ttyUSB0" for a Linux serial port without RXTX, anything
+	 * else is an RXTX serial port.  If the RXTX native library can not be 
+	 * loaded, a /dev/ port is opened as a tty instead.
+	 * 
+	 * @param bps the baud rate, only used by serial ports
+	 * @param port
+	 * @return the connected transport
+	 */
+	public static Transport openTransport(int bps, String port) throws Exception {
+		if (port.startsWith(TCP_PREFIX)) {
+			TcpTransport tcp = TcpTransport.create(port.substring(TCP_PREFIX.length()));
+			tcp.connect();
+			return tcp;
+		} else if (port.startsWith(PIPE_PREFIX)) {
+			PipeTransport pipe = PipeTransport.create(port.substring(PIPE_PREFIX.length()));
+			pipe.connect();
+			return pipe;
+		} else if (port.startsWith(TTY_PREFIX)) {
+			TtyTransport tty = new TtyTransport(port.substring(TTY_PREFIX.length()).trim(), bps);
+			tty.connect();
+			return tty;
+		}
+		
+		try {
+			SerialConnection serial = new SerialConnection(); 
+			serial.connect(bps, port);
+			return serial;
+		} catch (LinkageError e) {
+			if (!port.startsWith("/dev/")) throw e;
+			log.warn("RXTX is not available (" + e + "), opening " + port + " as a tty");
+			TtyTransport tty = new TtyTransport(port, bps);
+			tty.connect();
+			return tty;
+		}
+	}
+	
+	public static void sendOutput(Transport connection, String data) throws IOException {
 		if (connection ==null || !connection.isConnected()) {
 			//throw new RuntimeException("Device is not connected");
 			log.error("Device is not connected");
@@ -34,8 +78,29 @@ public class IOutilities {
 		output.writeBytes(data);
 		output.flush();
 	}
+	
+	/**
+	 * Writes the bytes in one write, and flushes.  
+	 */
+	public static void sendOutput(Transport connection, byte[] data, int length) throws IOException {
+		if (connection ==null || !connection.isConnected()) {
+			log.error("Device is not connected");
+			return;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("sending data: '" + Helper.formatLine(new String(data, 0, length, "ISO-8859-1")) + "'");	
+		}
+		DataOutputStream output = connection.getOutputStream();
+		output.write(data, 0, length);
+		output.flush();
+	}
 
-	public static String readInput(SerialConnection connection) throws IOException, InterruptedException {
+	/**
+	 * Reads a single message one byte at a time, waiting for the end of it.
+	 * InputStreamThread uses a FrameDecoder instead, which does not block
+	 * on partial messages.
+	 */
+	public static String readInput(Transport connection) throws IOException, InterruptedException {
 		log.debug("About to read from input stream");
 		
 		InputStream input = connection.getInputStream();
@@ -77,6 +142,36 @@ public class IOutilities {
     	return ports;
     }
     
+    /**
+     * @return the names of the serial ports; the /dev/ttyUSB and /dev/ttyACM 
+     *   devices if the RXTX native library can not be loaded
+     */
+    public static List<String> getSerialPortNames() {
+    	List<String> ports = new ArrayList<String>();
+    	try {
+    		@SuppressWarnings("unchecked")
+    		java.util.Enumeration<CommPortIdentifier> portEnum = CommPortIdentifier.getPortIdentifiers();
+    		while (portEnum.hasMoreElements()) {
+    			CommPortIdentifier portIdentifier = portEnum.nextElement();
+    			if (portIdentifier.getPortType() == CommPortIdentifier.PORT_SERIAL) {
+    				ports.add(portIdentifier.getName());
+    			}
+    		}
+    	} catch (LinkageError e) {
+    		log.warn("RXTX is not available (" + e + "), looking for tty devices");
+    		File[] devs = new File("/dev").listFiles();
+    		if (devs != null) {
+    			for (File f : devs) {
+    				String name = f.getName();
+    				if (name.startsWith("ttyUSB") || name.startsWith("ttyACM")) {
+    					ports.add(f.getPath());
+    				}
+    			}
+    		}
+    	}
+    	return ports;
+    }
+    
     public static String getPortTypeName (int portType) {
         switch (portType)  {
             case CommPortIdentifier.PORT_I2C:
@@ -8,42 +8,81 @@
 package quizbox.io;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import quizbox.util.Helper;
+import quizbox.util.LatestValueTable;
 import quizbox.util.Logger;
+import quizbox.util.PipelineLatency;
+import quizbox.util.RingBuffer;
+import quizbox.util.RingBuffer.OverflowPolicy;
+import quizbox.util.WakeupSignal;
 
 
 public class InputStreamThread implements Runnable {
 	
 	private final static Logger log = Logger.getLogger(InputStreamThread.class);
-	public static boolean isReadingStream = false;	
+	private static final int DISPATCH_QUEUE_SIZE = 1024;
+	private static final int DISPATCH_BATCH_SIZE = 128;
+	// How long to spin for more data before parking, in low latency mode
+	private static final long LOW_LATENCY_SPIN_USEC = 200;
+	// Wake up now and then even without a signal, in case one was missed
+	private static final long IDLE_CHECK_MSEC = 1000;
+	private static final int BUTTON_QUEUE_SIZE = 256;
 	
 	private volatile boolean done;
+	private volatile Runnable exitListener;
 	
 	private Thread thread;
-	private final BlockingQueue<String> inputLineQueue;
-	private final List<SerialListenerInterface> serialListenerList;
+	private final RingBuffer<ReceivedLine> inputLineQueue;
+	private final SerialListenerRegistry serialListeners;
 	private ExecutorService listenerPool;
-	private SerialConnection connection;
-	private int maxQueueSize;	
+	private final RingBuffer<ReceivedLine> buttonQueue;			// '#' frames, dispatched first
+	private final RingBuffer<ReceivedLine> dispatchQueue;		// anything else, in order
+	private final LatestValueTable<ReceivedLine> heartbeats;	// '+' and '@' frames by address
+	private final WakeupSignal dispatchSignal;
+	private Transport connection;
+	private final FrameDecoder decoder;
+	private final List<String> decodedLines;
 
 
-	public InputStreamThread(int queueSize, SerialConnection connect) {
+	public InputStreamThread(int queueSize, Transport connect) {
+		this(queueSize, OverflowPolicy.DROP_OLDEST, connect);
+	}
+
+	/**
+	 * @param queueSize the most lines kept for getInputLineQueue() consumers
+	 * @param policy what to do with a line when the queue is full; only use 
+	 *   BLOCK if something is always draining the queue
+	 * @param connect
+	 */
+	public InputStreamThread(int queueSize, OverflowPolicy policy, Transport connect) {
 		done = false;
-		inputLineQueue = new LinkedBlockingQueue<String>();
-		serialListenerList = new LinkedList<SerialListenerInterface>();
+		inputLineQueue = new RingBuffer<ReceivedLine>(queueSize, policy);
+		serialListeners = new SerialListenerRegistry();
 
 		// Create an executor to deliver incoming lines to listeners.
+		// The reader never waits on the listeners unless a queue fills up;
+		// heartbeats never fill up, only the latest one per box is kept.
+		buttonQueue = new RingBuffer<ReceivedLine>(BUTTON_QUEUE_SIZE, OverflowPolicy.BLOCK);
+		dispatchQueue = new RingBuffer<ReceivedLine>(DISPATCH_QUEUE_SIZE, OverflowPolicy.BLOCK);
+		heartbeats = new LatestValueTable<ReceivedLine>();
+		dispatchSignal = new WakeupSignal();
 		listenerPool = Executors.newSingleThreadExecutor();
+		listenerPool.submit(new Runnable() {
+			public void run() {
+				dispatchLines();
+			}
+		});
 		
-		maxQueueSize = queueSize;
 		connection = connect;
+		decoder = new FrameDecoder();
+		decodedLines = new ArrayList<String>();
 		
 		thread = new Thread(this);
 		thread.setName("InputStreamThread");
@@ -52,7 +91,7 @@ public class InputStreamThread implements Runnable {
 		log.debug("Starting InputStreamThread");
 	}
 	
-	public SerialConnection getConnection() {
+	public Transport getConnection() {
 		return connection;
 	}
 	
@@ -60,64 +99,144 @@ public class InputStreamThread implements Runnable {
 		this.done = done;
 	}
 	
-	public List<SerialListenerInterface> getSerialListenerList() {
-		return serialListenerList;
+	/**
+	 * @param listener run on the reader thread if it stops without being 
+	 *   told to, after the connection has been closed
+	 */
+	public void setExitListener(Runnable listener) {
+		exitListener = listener;
+	}
+	
+	/**
+	 * In low latency mode the reader spins briefly after each read before
+	 * parking, so presses close together are picked up sooner; otherwise
+	 * it parks straight away and uses almost no CPU while idle.
+	 */
+	public void setLowLatency(boolean isLowLatency) {
+		connection.getDataSignal().setSpinTime(isLowLatency ? LOW_LATENCY_SPIN_USEC : 0, 
+			TimeUnit.MICROSECONDS);
+	}
+	
+	public SerialListenerRegistry getSerialListeners() {
+		return serialListeners;
 	}
 
-	public BlockingQueue<String> getInputLineQueue() {
+	public RingBuffer<ReceivedLine> getInputLineQueue() {
 		return inputLineQueue;
 	}
 	
-	private void addInputLine(final String line) throws InterruptedException {
-		// Trim input queue
-		while (inputLineQueue.size() >= (maxQueueSize - 1)) {
-			log.debug("Input line queue has reached the maximum size of " + maxQueueSize + 
-				" lines.  Trimming a line from head of queue to make room");
-			inputLineQueue.poll();
-		}
-		if (line != null && line.trim().length() > 0) {
-			inputLineQueue.put(line.trim());	
+	private void addInputLine(String line, long readTime) throws InterruptedException {
+		if (line == null) return;
+		ReceivedLine received = new ReceivedLine(line, readTime);
+		
+		// The queue enforces its own size limit, see getDroppedLineCount()
+		String trimmed = line.trim();
+		if (trimmed.length() > 0) {
+			inputLineQueue.put((trimmed.length() == line.length()) ? 
+				received : new ReceivedLine(trimmed, readTime));
 		}
 		
-		listenerPool.submit(new Runnable() {
-			public void run() {
-				// Synchronize to avoid error if packet listener add/remove is 
-				// called while we are iterating
-				synchronized (serialListenerList) {
-					for (SerialListenerInterface listener : serialListenerList) {
-						if (listener != null) {
-							listener.processLine(line);	
-						} else {
-							log.warn("SerialListener is null, size is " + serialListenerList.size());
-						}
-					}			
-				}				
+		// Sort into lanes by the frame type and address, see QuizMessageDecoder
+		char type = (line.length() > 0) ? line.charAt(0) : 0;
+		if (type == '#') {
+			// Any heartbeat still pending for this box is older than the press
+			if (line.length() >= 4) heartbeats.remove(addressOf(line));
+			buttonQueue.put(received);
+		} else if ((type == '+' && line.length() >= 6) || (type == '@' && line.length() >= 7)) {
+			heartbeats.put(addressOf(line), received);
+		} else {
+			dispatchQueue.put(received);
+		}
+		dispatchSignal.signal();
+	}
+	
+	private static int addressOf(String line) {
+		return ((line.charAt(1) & 0xFF) << 16) | ((line.charAt(2) & 0xFF) << 8) | (line.charAt(3) & 0xFF);
+	}
+	
+	/**
+	 * Runs on the listener thread.  Waits for lines, then hands everything 
+	 * that has been queued since the last wakeup to the listeners at once:
+	 * button presses first, then other frames in order, then the latest 
+	 * heartbeat of each box.
+	 */
+	private void dispatchLines() {
+		ReceivedLine[] batch = new ReceivedLine[DISPATCH_BATCH_SIZE];
+		String[] lines = new String[DISPATCH_BATCH_SIZE];
+		long[] readTimes = new long[DISPATCH_BATCH_SIZE];
+		try {
+			while (true) {
+				int buttons = buttonQueue.drainTo(batch, 0, batch.length);
+				int count = buttons;
+				count += dispatchQueue.drainTo(batch, count, batch.length - count);
+				count += heartbeats.drainTo(batch, count, batch.length - count);
+				if (count == 0) {
+					dispatchSignal.await(IDLE_CHECK_MSEC, TimeUnit.MILLISECONDS);
+					continue;
+				}
+				long now = System.nanoTime();
+				for (int i=0; i<count; i++) {
+					lines[i] = batch[i].getLine();
+					readTimes[i] = batch[i].getReadTime();
+					batch[i] = null;
+					if (i < buttons) PipelineLatency.QUEUE.record(now - readTimes[i]);
+				}
+				
+				// Iterates a snapshot, so listeners can be added and removed meanwhile
+				serialListeners.dispatch(lines, readTimes, count);
+				for (int i=0; i<count; i++) lines[i] = null;
 			}
-		});
+		} catch (InterruptedException e) {
+			log.debug("Listener dispatch was interrupted");
+		}
+	}
+	
+	/**
+	 * @return the number of heartbeat frames replaced by a newer one before dispatch
+	 */
+	public long getReplacedHeartbeatCount() {
+		return heartbeats.getReplacedCount();
+	}
+	
+	/**
+	 * @return the number of lines the input line queue has dropped because it was full
+	 */
+	public long getDroppedLineCount() {
+		return inputLineQueue.getDroppedOldestCount() + inputLineQueue.getDroppedNewestCount();
 	}
 	
 	public void run() {
+		WakeupSignal signal = connection.getDataSignal();
+		boolean isSignaled = false;
 		try {
 			while (!done) {
 				try {
-					if (connection.ready()) {
-						isReadingStream = true;
-						String line = IOutilities.readInput(connection);
-						if (line != null) {
+					InputStream input = connection.getInputStream();
+					if (input == null || !connection.isConnected()) {
+						log.warn("Connection closed: " + connection.getName());
+						break;
+					}
+					
+					// The decoder only reads what available() reports, so 
+					// this is a single available() call when there is no data
+					decodedLines.clear();
+					if (decoder.read(input, decodedLines) > 0) {
+						// Stamp the frames as soon as they are off the serial buffer,
+						// before any queueing or listener delays
+						long readTime = System.nanoTime();
+						if (isSignaled) {
+							PipelineLatency.WAKEUP.record(readTime - signal.getSignalTime());
+							isSignaled = false;
+						}
+						for (String line : decodedLines) {
 							if (log.isDebugEnabled()) {
 								log.debug("Read: '" + Helper.formatLine(line) + "' from input stream");
 							}						
-							this.addInputLine(line);
+							this.addInputLine(line, readTime);
 						}
-						isReadingStream = false;
 					} else {
-						synchronized (this.connection) {
-							// There's a chance that we got notified after the first in.available check
-							if (connection.ready()) {
-								continue;
-							}
-							connection.wait();		// wait for data
-						}	
+						// A signal given since the last read is remembered, so none are lost
+						isSignaled = signal.await(IDLE_CHECK_MSEC, TimeUnit.MILLISECONDS);
 					}				
 				} catch (Exception e) {
 					if (e instanceof InterruptedException) throw ((InterruptedException)e);					
@@ -136,6 +255,15 @@ public class InputStreamThread implements Runnable {
 			// We've been told to stop -- the user called the close() method			
 			log.info("Packet parser thread was interrupted.  This occurs when close() is called");
 		} finally {
+			long dropped = getDroppedLineCount();
+			if (dropped > 0) {
+				log.info("Input line queue dropped " + dropped + " lines (" + 
+					inputLineQueue.getPolicy() + ")");
+			}
+			long replaced = getReplacedHeartbeatCount();
+			if (replaced > 0) {
+				log.info("Skipped " + replaced + " heartbeats that were replaced by newer ones");
+			}
 			if (connection != null) {
 				connection.close();
 			}
@@ -149,6 +277,10 @@ public class InputStreamThread implements Runnable {
 		}
 		
 		log.info("InputStreamThread is exiting");
+		Runnable listener = exitListener;
+		if (!done && listener != null) {
+			listener.run();
+		}
 	}
 	
 	public void interrupt() {
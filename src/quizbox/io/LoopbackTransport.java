@@ -0,0 +1,61 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * In process transport, for running and load testing without hardware.
+ * Whatever a simulated base station writes to getDeviceOutputStream() is
+ * read by the connection, and whatever the connection sends can be read 
+ * from getDeviceInputStream().
+ */
+public class LoopbackTransport extends StreamTransport {
+	private final ByteQueue mySentQueue;
+	
+	public LoopbackTransport() {
+		this("loopback");
+	}
+	
+	public LoopbackTransport(String name) {
+		super(name);
+		mySentQueue = new ByteQueue(1024, null);
+		attach(mySentQueue.getOutputStream());
+	}
+	
+	/**
+	 * @return the stream the simulated device writes its frames to
+	 */
+	public OutputStream getDeviceOutputStream() {
+		return getInputQueue().getOutputStream();
+	}
+	
+	/**
+	 * @return the stream the simulated device reads commands from
+	 */
+	public InputStream getDeviceInputStream() {
+		return mySentQueue.getInputStream();
+	}
+	
+	/**
+	 * Sends the bytes of the string (one byte per char) as if the device had
+	 */
+	public void inject(String data) throws IOException {
+		byte[] b = new byte[data.length()];
+		for (int i=0; i<b.length; i++) b[i] = (byte)data.charAt(i);
+		getInputQueue().write(b, 0, b.length);
+	}
+
+	@Override
+	protected void closeResources() {
+		mySentQueue.close();
+	}
+}
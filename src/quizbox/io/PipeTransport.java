@@ -0,0 +1,78 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import quizbox.util.Logger;
+
+
+/**
+ * Reads and writes device files: a pseudo terminal (for example one end of
+ * "socat -d -d pty,raw,echo=0 pty,raw,echo=0"), or a pair of named pipes.
+ * 
+ * With named pipes the input pipe is opened first; opening a pipe blocks
+ * until the other side opens it too, so the simulator should open its 
+ * writing end first.
+ */
+public class PipeTransport extends StreamTransport {
+	private final static Logger log = Logger.getLogger(PipeTransport.class);
+	
+	private final String myInputPath;
+	private final String myOutputPath;
+	private FileInputStream myInput;
+	private FileOutputStream myOutput;
+	
+	/**
+	 * @param path a pseudo terminal, used for reading and writing
+	 */
+	public PipeTransport(String path) {
+		this(path, path);
+	}
+	
+	public PipeTransport(String inputPath, String outputPath) {
+		super("pipe:" + (inputPath.equals(outputPath) ? inputPath : (inputPath + "," + outputPath)));
+		myInputPath = inputPath;
+		myOutputPath = outputPath;
+		myInput = null;
+		myOutput = null;
+	}
+	
+	/**
+	 * @param paths "path", or "inputPath,outputPath"
+	 */
+	public static PipeTransport create(String paths) {
+		int i = paths.indexOf(',');
+		if (i < 0) return new PipeTransport(paths.trim());
+		return new PipeTransport(paths.substring(0, i).trim(), paths.substring(i+1).trim());
+	}
+	
+	public void connect() throws IOException {
+		myInput = new FileInputStream(myInputPath);
+		myOutput = new FileOutputStream(myOutputPath);
+		attach(myOutput);
+		startPump(myInput);
+		log.info("CONNECTED to: " + getName());
+	}
+	
+	@Override
+	protected void closeResources() {
+		try {
+			if (myInput != null) myInput.close();
+		} catch (IOException e) {
+			log.warn("Exception while closing input", e);
+		}
+		try {
+			if (myOutput != null) myOutput.close();
+		} catch (IOException e) {
+			log.warn("Exception while closing output", e);
+		}
+	}
+}
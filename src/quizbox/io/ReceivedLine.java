@@ -0,0 +1,39 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+
+/**
+ * A line received from the serial device, together with the 
+ * System.nanoTime() at which its bytes were read off the serial buffer.
+ */
+public class ReceivedLine {
+	private final String myLine;
+	private final long myReadTime;
+	
+	public ReceivedLine(String line, long readTime) {
+		myLine = line;
+		myReadTime = readTime;
+	}
+	
+	public String getLine() {
+		return myLine;
+	}
+	
+	/**
+	 * @return the System.nanoTime() when the line was read
+	 */
+	public long getReadTime() {
+		return myReadTime;
+	}
+	
+	@Override
+	public String toString() {
+		return myLine;
+	}
+}
@@ -20,11 +20,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import quizbox.util.Logger;
+import quizbox.util.WakeupSignal;
 
-public class SerialConnection implements SerialPortEventListener {
+public class SerialConnection implements Transport, SerialPortEventListener {
 	private final static Logger log = Logger.getLogger(SerialConnection.class);
 	
 	private boolean serialErrorLogged = false;
+	private String portName = "";
+	private final WakeupSignal dataSignal = new WakeupSignal();
 	SerialPort serialPort;
 	InputStream input;
 	DataOutputStream output;
@@ -35,6 +38,14 @@ public class SerialConnection implements SerialPortEventListener {
 		output = null;
 	}
 	
+	public String getName() {
+		return portName;
+	}
+	
+	public WakeupSignal getDataSignal() {
+		return dataSignal;
+	}
+	
 	public InputStream getInputStream() {
 		return input;
 	}
@@ -94,6 +105,7 @@ public class SerialConnection implements SerialPortEventListener {
                 
                 input = in;
                 output = new DataOutputStream(new BufferedOutputStream(out));
+                this.portName = portName;
                 log.info("CONNECTED to: " + portName);
              } else {
             	log.error("Error: Only serial ports are handled, not: " + portName);
@@ -122,27 +134,17 @@ public class SerialConnection implements SerialPortEventListener {
 		} catch (Exception e) {
 			log.warn("Exception while closing serial port");
 		}
+		
+		// so the reader notices the connection is gone
+		dataSignal.signal();
 	}
 
 	@Override
 	public void serialEvent(SerialPortEvent event) {
 		switch (event.getEventType()) {	
 		case SerialPortEvent.DATA_AVAILABLE:
-			boolean isReading = InputStreamThread.isReadingStream;
-			if (ready()) {
-				try {
-					if (log.isDebugEnabled()) {
-						log.debug("serialEvent: " + serialPort.getInputStream().available() + " bytes available");
-					}
-					synchronized (this) {
-						this.notify();										
-					}
-				} catch (Exception e) {
-					log.error("Error in handleSerialData method", e);
-				}
-			} else {
-				if (!isReading) log.debug("We were notified of new data but available() is returning 0 *****************");
-			}
+			// The reader checks available() itself, so don't call it here too
+			dataSignal.signal();
 			break;
 		default:
 			log.info("Ignoring serial port event type: " + event.getEventType());
@@ -0,0 +1,139 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.util.concurrent.TimeUnit;
+
+import quizbox.util.Logger;
+import quizbox.util.PipelineLatency;
+
+/**
+ * Copy-on-write set of serial listeners.  Adding or removing a listener 
+ * copies the array, so dispatching lines iterates a snapshot without 
+ * taking a lock, and a slow listener never blocks registration.
+ * 
+ * Each listener is timed while it processes lines, and a warning is 
+ * logged the first time it goes over the processing budget.
+ */
+public class SerialListenerRegistry {
+	private final static Logger log = Logger.getLogger(SerialListenerRegistry.class);
+	
+	public static final long DEFAULT_BUDGET_MSEC = 20;
+	private static final Entry[] EMPTY = new Entry[0];
+
+	private final Object myWriteLock = new Object();
+	private volatile Entry[] myEntries;
+	private volatile long myBudgetNanos;
+	
+	public SerialListenerRegistry() {
+		myEntries = EMPTY;
+		myBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET_MSEC);
+	}
+	
+	public void setProcessingBudget(long time, TimeUnit unit) {
+		myBudgetNanos = unit.toNanos(time);
+	}
+	
+	public long getProcessingBudgetNanos() {
+		return myBudgetNanos;
+	}
+	
+	/**
+	 * Adds the listener, if it is not already registered
+	 */
+	public void add(SerialListenerInterface listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener can not be null");
+		}
+		synchronized (myWriteLock) {
+			Entry[] cur = myEntries;
+			for (Entry e : cur) {
+				if (e.myListener == listener) return;
+			}
+			Entry[] next = new Entry[cur.length + 1];
+			System.arraycopy(cur, 0, next, 0, cur.length);
+			next[cur.length] = new Entry(listener);
+			myEntries = next;
+		}
+	}
+	
+	/**
+	 * @return true if the listener was registered
+	 */
+	public boolean remove(SerialListenerInterface listener) {
+		synchronized (myWriteLock) {
+			Entry[] cur = myEntries;
+			for (int i=0; i<cur.length; i++) {
+				if (cur[i].myListener == listener) {
+					Entry[] next = new Entry[cur.length - 1];
+					System.arraycopy(cur, 0, next, 0, i);
+					System.arraycopy(cur, i+1, next, i, cur.length - i - 1);
+					myEntries = next;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	public int size() {
+		return myEntries.length;
+	}
+	
+	/**
+	 * @return a snapshot of the registered listeners
+	 */
+	public SerialListenerInterface[] getListeners() {
+		Entry[] cur = myEntries;
+		SerialListenerInterface[] arr = new SerialListenerInterface[cur.length];
+		for (int i=0; i<cur.length; i++) arr[i] = cur[i].myListener;
+		return arr;
+	}
+	
+	/**
+	 * Hands the lines to every listener registered at the time of the call.
+	 */
+	public void dispatch(String[] lines, long[] readTimes, int count) {
+		Entry[] snapshot = myEntries;
+		long dispatchStart = System.nanoTime();
+		for (Entry e : snapshot) {
+			long start = System.nanoTime();
+			try {
+				SerialListenerInterface listener = e.myListener;
+				if (listener instanceof BatchSerialListenerInterface) {
+					((BatchSerialListenerInterface)listener).processLines(lines, readTimes, count);
+				} else {
+					for (int i=0; i<count; i++) {
+						listener.processLine(lines[i]);
+					}
+				}
+			} catch (RuntimeException ex) {
+				log.error("SerialListener failed to process lines", ex);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (elapsed > myBudgetNanos && !e.myIsOverBudget) {
+				e.myIsOverBudget = true;
+				log.warn("SerialListener " + e.myListener.getClass().getName() + " took " + 
+					TimeUnit.NANOSECONDS.toMillis(elapsed) + " msec for " + count + 
+					" lines, budget is " + TimeUnit.NANOSECONDS.toMillis(myBudgetNanos) + 
+					" msec (only warning once)");
+			}
+		}
+		PipelineLatency.LISTENERS.recordSince(dispatchStart);
+	}
+	
+	private static class Entry {
+		final SerialListenerInterface myListener;
+		boolean myIsOverBudget;		// only touched by the dispatch thread
+		
+		Entry(SerialListenerInterface listener) {
+			myListener = listener;
+			myIsOverBudget = false;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+import quizbox.util.Logger;
+import quizbox.util.WakeupSignal;
+
+
+/**
+ * Base for the transports that are not RXTX serial ports.  Incoming bytes
+ * go through a queue, filled either directly (loopback) or by a pump thread 
+ * blocking on the underlying stream, so that available() is accurate and
+ * the data signal is given the same way the serial port does it.
+ */
+public abstract class StreamTransport implements Transport {
+	private final static Logger log = Logger.getLogger(StreamTransport.class);
+	private static final int QUEUE_SIZE = 4096;
+	private static final int PUMP_BUFFER_SIZE = 1024;
+	
+	private final String myName;
+	private final WakeupSignal myDataSignal;
+	private final ByteQueue myInputQueue;
+	private DataOutputStream myOutput;
+	private Thread myPump;
+	private volatile boolean myIsConnected;
+	
+	protected StreamTransport(String name) {
+		myName = name;
+		myDataSignal = new WakeupSignal();
+		myInputQueue = new ByteQueue(QUEUE_SIZE, myDataSignal);
+		myOutput = null;
+		myPump = null;
+		myIsConnected = false;
+	}
+	
+	/**
+	 * Marks the transport connected, writing to the given stream
+	 */
+	protected void attach(OutputStream out) {
+		myOutput = new DataOutputStream(new BufferedOutputStream(out));
+		myIsConnected = true;
+	}
+	
+	/**
+	 * Starts a thread that copies everything from the stream into the 
+	 * input queue, and closes the transport when the stream ends.
+	 */
+	protected void startPump(final InputStream in) {
+		startPumpThread(new Runnable() {
+			public void run() {
+				byte[] buf = new byte[PUMP_BUFFER_SIZE];
+				try {
+					int n;
+					while ((n = in.read(buf)) >= 0) {
+						if (n > 0) myInputQueue.write(buf, 0, n);
+					}
+					log.info("End of stream from: " + myName);
+				} catch (IOException e) {
+					if (myIsConnected) log.warn("Problem reading from: " + myName, e);
+				} finally {
+					close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Same as startPump(InputStream), reading the channel into a direct buffer
+	 */
+	protected void startPump(final ReadableByteChannel channel) {
+		startPumpThread(new Runnable() {
+			public void run() {
+				ByteBuffer buf = ByteBuffer.allocateDirect(PUMP_BUFFER_SIZE);
+				byte[] chunk = new byte[PUMP_BUFFER_SIZE];
+				try {
+					while (channel.read(buf) >= 0) {
+						buf.flip();
+						int n = buf.remaining();
+						if (n > 0) {
+							buf.get(chunk, 0, n);
+							myInputQueue.write(chunk, 0, n);
+						}
+						buf.clear();
+					}
+					log.info("End of stream from: " + myName);
+				} catch (ClosedChannelException e) {
+					// closed by close(), or by interrupting the pump
+				} catch (IOException e) {
+					if (myIsConnected) log.warn("Problem reading from: " + myName, e);
+				} finally {
+					close();
+				}
+			}
+		});
+	}
+	
+	private void startPumpThread(Runnable pump) {
+		myPump = new Thread(pump);
+		myPump.setName("TransportPump " + myName);
+		myPump.setDaemon(true);
+		myPump.start();
+	}
+	
+	protected ByteQueue getInputQueue() {
+		return myInputQueue;
+	}
+	
+	/**
+	 * Releases the underlying streams, sockets or files
+	 */
+	protected abstract void closeResources();
+	
+	@Override
+	public String getName() {
+		return myName;
+	}
+	
+	@Override
+	public InputStream getInputStream() {
+		return myInputQueue.getInputStream();
+	}
+	
+	@Override
+	public DataOutputStream getOutputStream() {
+		return myOutput;
+	}
+	
+	@Override
+	public WakeupSignal getDataSignal() {
+		return myDataSignal;
+	}
+	
+	@Override
+	public int available() {
+		if (!myIsConnected && myInputQueue.available() == 0) return -1;
+		return myInputQueue.available();
+	}
+	
+	@Override
+	public boolean ready() {
+		return available() > 0;
+	}
+	
+	@Override
+	public boolean isConnected() {
+		return myIsConnected;
+	}
+	
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (!myIsConnected) return;
+			myIsConnected = false;
+		}
+		try {
+			if (myOutput != null) myOutput.close();
+		} catch (IOException e) {
+			log.warn("Exception while closing output stream", e);
+		}
+		closeResources();
+		myInputQueue.close();
+		log.info("Closed: " + myName);
+	}
+	
+	@Override
+	public String toString() {
+		return myName;
+	}
+}
@@ -0,0 +1,64 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import quizbox.util.Logger;
+
+
+/**
+ * Connects to a TCP socket, such as a base station simulator or a serial
+ * to network bridge on this machine.
+ */
+public class TcpTransport extends StreamTransport {
+	private final static Logger log = Logger.getLogger(TcpTransport.class);
+	private static final int CONNECT_TIMEOUT_MSEC = 2000;
+	
+	private final String myHost;
+	private final int myPort;
+	private Socket mySocket;
+	
+	public TcpTransport(String host, int port) {
+		super("tcp:" + host + ":" + port);
+		myHost = host;
+		myPort = port;
+		mySocket = null;
+	}
+	
+	/**
+	 * @param address "host:port", or just "port" for localhost
+	 */
+	public static TcpTransport create(String address) {
+		int i = address.lastIndexOf(':');
+		String host = (i < 0) ? "localhost" : address.substring(0, i);
+		int port = Integer.parseInt(address.substring(i+1).trim());
+		return new TcpTransport(host.trim(), port);
+	}
+	
+	public void connect() throws IOException {
+		Socket socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress(myHost, myPort), CONNECT_TIMEOUT_MSEC);
+		mySocket = socket;
+		attach(socket.getOutputStream());
+		startPump(socket.getInputStream());
+		log.info("CONNECTED to: " + getName());
+	}
+	
+	@Override
+	protected void closeResources() {
+		try {
+			if (mySocket != null) mySocket.close();
+		} catch (IOException e) {
+			log.warn("Exception while closing socket", e);
+		}
+	}
+}
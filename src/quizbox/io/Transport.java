@@ -0,0 +1,52 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.DataOutputStream;
+import java.io.InputStream;
+
+import quizbox.util.WakeupSignal;
+
+
+/**
+ * A byte stream connection to the quizzing base station.  The serial port
+ * is one, the others let the reading and framing code run without hardware.
+ * 
+ * Implementations signal their WakeupSignal when new data arrives or the 
+ * connection closes, InputStreamThread waits on it.
+ */
+public interface Transport {
+	/**
+	 * @return a description of what the transport is connected to
+	 */
+	public String getName();
+	
+	public InputStream getInputStream();
+	
+	public DataOutputStream getOutputStream();
+	
+	/**
+	 * @return the signal given when data arrives or the connection closes
+	 */
+	public WakeupSignal getDataSignal();
+	
+	/**
+	 * @return the number of bytes that can be read without blocking, 
+	 *   negative if not connected or the stream failed
+	 */
+	public int available();
+	
+	/**
+	 * @return true if there are bytes to read
+	 */
+	public boolean ready();
+	
+	public boolean isConnected();
+	
+	public void close();
+}
@@ -0,0 +1,140 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import quizbox.util.Logger;
+
+
+/**
+ * Serial port on Linux without RXTX or any native library.  The tty is set
+ * up once with stty (raw, 8N1, no flow control), then read and written 
+ * through FileChannels with direct buffers.  Reading and writing use 
+ * separate channels, so a blocked read never holds up a write.
+ */
+public class TtyTransport extends StreamTransport {
+	private final static Logger log = Logger.getLogger(TtyTransport.class);
+	private static final int WRITE_BUFFER_SIZE = 256;
+	
+	private final String myPath;
+	private final int myBaud;
+	private FileChannel myReadChannel;
+	private FileChannel myWriteChannel;
+	
+	/**
+	 * @param path the device, such as /dev/ttyUSB0
+	 * @param baud
+	 */
+	public TtyTransport(String path, int baud) {
+		super("tty:" + path);
+		myPath = path;
+		myBaud = baud;
+		myReadChannel = null;
+		myWriteChannel = null;
+	}
+	
+	public void connect() throws IOException {
+		configure();
+		myReadChannel = new FileInputStream(myPath).getChannel();
+		myWriteChannel = new FileOutputStream(myPath).getChannel();
+		attach(new ChannelOutputStream(myWriteChannel));
+		startPump(myReadChannel);
+		log.info("CONNECTED to: " + myPath + " at " + myBaud);
+	}
+	
+	/**
+	 * Sets the baud rate and raw mode with stty
+	 */
+	private void configure() throws IOException {
+		ProcessBuilder pb = new ProcessBuilder("stty", "-F", myPath, String.valueOf(myBaud), 
+			"raw", "-echo", "-echoe", "-echok", "-echoctl", "-echoke", "-hupcl",
+			"cs8", "-cstopb", "-parenb", "-crtscts", "-ixon", "-ixoff", "clocal", "cread",
+			"min", "1", "time", "0");
+		pb.redirectErrorStream(true);
+		Process p = pb.start();
+		String output = readAll(p.getInputStream());
+		try {
+			int rc = p.waitFor();
+			if (rc != 0) {
+				throw new IOException("stty failed for " + myPath + " (" + rc + "): " + output.trim());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while running stty for " + myPath);
+		}
+	}
+	
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[256];
+		int n;
+		while ((n = in.read(buf)) >= 0) out.write(buf, 0, n);
+		in.close();
+		return out.toString();
+	}
+	
+	@Override
+	protected void closeResources() {
+		try {
+			// Also wakes the pump if it is blocked reading
+			if (myReadChannel != null) myReadChannel.close();
+		} catch (IOException e) {
+			log.warn("Exception while closing " + myPath, e);
+		}
+		try {
+			if (myWriteChannel != null) myWriteChannel.close();
+		} catch (IOException e) {
+			log.warn("Exception while closing " + myPath, e);
+		}
+	}
+	
+	/**
+	 * Writes through a reused direct buffer, so the channel does not 
+	 * copy every write into a temporary one
+	 */
+	private static class ChannelOutputStream extends OutputStream {
+		private final FileChannel myChannel;
+		private final ByteBuffer myBuffer;
+		
+		ChannelOutputStream(FileChannel channel) {
+			myChannel = channel;
+			myBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+		
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = Math.min(len, myBuffer.capacity());
+				myBuffer.clear();
+				myBuffer.put(b, off, n);
+				myBuffer.flip();
+				while (myBuffer.hasRemaining()) myChannel.write(myBuffer);
+				off += n;
+				len -= n;
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			myChannel.close();
+		}
+	}
+}
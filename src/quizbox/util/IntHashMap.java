@@ -0,0 +1,86 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.util;
+
+/**
+ * Small open addressing hash map with primitive int keys, so lookups do
+ * not box the key.  Entries can not be removed.  Not thread safe.
+ */
+public class IntHashMap<V> {
+	private int[] myKeys;
+	private Object[] myValues;
+	private int mySize;
+
+	public IntHashMap() {
+		this(16);
+	}
+
+	public IntHashMap(int capacity) {
+		int n = 16;
+		while (n < capacity*2) n <<= 1;
+		myKeys = new int[n];
+		myValues = new Object[n];
+		mySize = 0;
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int mask = myKeys.length - 1;
+		int i = mix(key) & mask;
+		while (myValues[i] != null) {
+			if (myKeys[i] == key) return (V)myValues[i];
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the previous value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null values are not allowed");
+		}
+		int mask = myKeys.length - 1;
+		int i = mix(key) & mask;
+		while (myValues[i] != null) {
+			if (myKeys[i] == key) {
+				V prev = (V)myValues[i];
+				myValues[i] = value;
+				return prev;
+			}
+			i = (i + 1) & mask;
+		}
+		myKeys[i] = key;
+		myValues[i] = value;
+		if (++mySize*2 > myKeys.length) grow();
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void grow() {
+		int[] keys = myKeys;
+		Object[] values = myValues;
+		myKeys = new int[keys.length*2];
+		myValues = new Object[values.length*2];
+		mySize = 0;
+		for (int i=0; i<keys.length; i++) {
+			if (values[i] != null) put(keys[i], (V)values[i]);
+		}
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,128 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in fixed buckets: each power of two microseconds is 
+ * split into SUB_BUCKETS equal parts, so a percentile is within about 
+ * 25% of the real value, from 1 usec up to over an hour.  Recording
+ * is lock free and allocates nothing, so it can be done on every frame.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAGNITUDES = 30;
+	private static final int BUCKETS = (MAGNITUDES+1) * SUB_BUCKETS;
+	
+	private final String myName;
+	private final AtomicLongArray myCounts;
+	private final AtomicLong myCount;
+	private final AtomicLong myTotal;
+	private final AtomicLong myMax;
+	
+	public LatencyHistogram(String name) {
+		myName = name;
+		myCounts = new AtomicLongArray(BUCKETS);
+		myCount = new AtomicLong(0);
+		myTotal = new AtomicLong(0);
+		myMax = new AtomicLong(0);
+	}
+	
+	public String getName() {
+		return myName;
+	}
+	
+	/**
+	 * @param nanos the latency; negative values are counted as zero
+	 */
+	public void record(long nanos) {
+		long usec = Math.max(0, nanos/1000);
+		myCounts.incrementAndGet(bucketOf(usec));
+		myCount.incrementAndGet();
+		myTotal.addAndGet(usec);
+		long max = myMax.get();
+		while (usec > max && !myMax.compareAndSet(max, usec)) {
+			max = myMax.get();
+		}
+	}
+	
+	/**
+	 * Records the time from start until now
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+	
+	private static int bucketOf(long usec) {
+		if (usec < SUB_BUCKETS) return (int)usec;
+		int magnitude = 63 - Long.numberOfLeadingZeros(usec);		// usec >= 2^magnitude
+		int sub = (int)(usec >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS-1);
+		int bucket = (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+		return Math.min(bucket, BUCKETS-1);
+	}
+	
+	/**
+	 * @return the largest value that goes in the bucket, in usec
+	 */
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int magnitude = bucket/SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long width = 1L << (magnitude - SUB_BITS);
+		return (1L << magnitude) + (sub+1)*width - 1;
+	}
+	
+	public long getCount() {
+		return myCount.get();
+	}
+	
+	public long getMaxUsec() {
+		return myMax.get();
+	}
+	
+	public long getMeanUsec() {
+		long n = myCount.get();
+		return (n == 0) ? 0 : myTotal.get()/n;
+	}
+	
+	/**
+	 * @param percent such as 50 or 99.9
+	 * @return the upper bound of the bucket the percentile falls in, in usec
+	 */
+	public long getPercentileUsec(double percent) {
+		long n = myCount.get();
+		if (n == 0) return 0;
+		long target = (long)Math.ceil(n * percent / 100.0);
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			seen += myCounts.get(i);
+			if (seen >= Math.max(1, target)) return Math.min(upperBoundOf(i), myMax.get());
+		}
+		return myMax.get();
+	}
+	
+	public void reset() {
+		for (int i=0; i<BUCKETS; i++) myCounts.set(i, 0);
+		myCount.set(0);
+		myTotal.set(0);
+		myMax.set(0);
+	}
+	
+	/**
+	 * @return one line: count, mean, 50/90/99/99.9 percentiles and max, in usec
+	 */
+	@Override
+	public String toString() {
+		return String.format("%-22s n=%-8d mean=%-7d p50=%-7d p90=%-7d p99=%-7d p99.9=%-7d max=%d (usec)",
+			myName, getCount(), getMeanUsec(), getPercentileUsec(50), getPercentileUsec(90),
+			getPercentileUsec(99), getPercentileUsec(99.9), getMaxUsec());
+	}
+}
@@ -0,0 +1,142 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.util;
+
+import java.util.Arrays;
+
+/**
+ * Holds the latest pending value for each int key, a new value replaces 
+ * one that has not been taken yet.  Values are taken in the order their key
+ * first became pending.  Each key gets a slot the first time it is seen, 
+ * after that putting and taking values does not allocate.
+ *
+ * Safe for one producer and one consumer thread.
+ */
+public class LatestValueTable<E> {
+	private final IntHashMap<Integer> mySlots;
+	private Object[] myValues;
+	private boolean[] myIsQueued;
+	private int[] myQueue;		// slots with a pending value, oldest first
+	private int myQueueSize;
+	private int mySlotCount;
+	private int myPendingCount;
+	private long myReplacedCount;
+
+	public LatestValueTable() {
+		this(64);
+	}
+
+	public LatestValueTable(int capacity) {
+		mySlots = new IntHashMap<Integer>(capacity);
+		myValues = new Object[capacity];
+		myIsQueued = new boolean[capacity];
+		myQueue = new int[capacity];
+		myQueueSize = 0;
+		mySlotCount = 0;
+		myPendingCount = 0;
+		myReplacedCount = 0;
+	}
+
+	/**
+	 * @return true if the value replaced a pending one
+	 */
+	public synchronized boolean put(int key, E value) {
+		if (value == null) throw new NullPointerException();
+		int slot = slotOf(key);
+		boolean replaced = (myValues[slot] != null);
+		if (replaced) {
+			myReplacedCount++;
+		} else {
+			myPendingCount++;
+		}
+		if (!myIsQueued[slot]) {
+			myIsQueued[slot] = true;
+			myQueue[myQueueSize++] = slot;
+		}
+		myValues[slot] = value;
+		return replaced;
+	}
+
+	/**
+	 * Drops the pending value for the key, if any
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized E remove(int key) {
+		Integer slot = mySlots.get(key);
+		if (slot == null) return null;
+		E value = (E)myValues[slot];
+		if (value != null) {
+			myValues[slot] = null;
+			myPendingCount--;
+		}
+		return value;
+	}
+
+	/**
+	 * Moves up to max pending values into the array, oldest key first
+	 *
+	 * @return the number of values moved
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized int drainTo(E[] arr, int offset, int max) {
+		int n = 0;
+		int i = 0;
+		while (i < myQueueSize && n < max) {
+			int slot = myQueue[i++];
+			myIsQueued[slot] = false;
+			E value = (E)myValues[slot];
+			if (value != null) {
+				arr[offset + n++] = value;
+				myValues[slot] = null;
+				myPendingCount--;
+			}
+		}
+		// Keep the slots that did not fit
+		System.arraycopy(myQueue, i, myQueue, 0, myQueueSize - i);
+		myQueueSize -= i;
+		return n;
+	}
+
+	public synchronized int size() {
+		return myPendingCount;
+	}
+
+	public synchronized boolean isEmpty() {
+		return myPendingCount == 0;
+	}
+
+	/**
+	 * @return the number of values replaced before they were taken
+	 */
+	public synchronized long getReplacedCount() {
+		return myReplacedCount;
+	}
+
+	public synchronized void clear() {
+		for (int i=0; i<myQueueSize; i++) {
+			myIsQueued[myQueue[i]] = false;
+			myValues[myQueue[i]] = null;
+		}
+		myQueueSize = 0;
+		myPendingCount = 0;
+	}
+
+	private int slotOf(int key) {
+		Integer slot = mySlots.get(key);
+		if (slot != null) return slot;
+		int s = mySlotCount++;
+		if (s == myValues.length) {
+			int n = myValues.length * 2;
+			myValues = Arrays.copyOf(myValues, n);
+			myIsQueued = Arrays.copyOf(myIsQueued, n);
+			myQueue = Arrays.copyOf(myQueue, n);
+		}
+		mySlots.put(key, s);
+		return s;
+	}
+}
@@ -0,0 +1,49 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.util;
+
+/**
+ * The latency histograms for each stage a button press goes through, 
+ * from the serial port to the screen.  They are shared by the whole 
+ * program, the same as the quiz box registry.
+ */
+public class PipelineLatency {
+	/** Data signaled by the port until the reader has read it */
+	public static final LatencyHistogram WAKEUP = new LatencyHistogram("signal -> read");
+	/** A press read until the dispatcher hands it to the listeners */
+	public static final LatencyHistogram QUEUE = new LatencyHistogram("read -> dispatch");
+	/** All of the listeners processing one batch of lines */
+	public static final LatencyHistogram LISTENERS = new LatencyHistogram("listeners");
+	/** A press read until its box is updated in the control GUI */
+	public static final LatencyHistogram PRESS_TO_GUI = new LatencyHistogram("press read -> GUI");
+	/** A press read until the processing loop refreshes the whole GUI */
+	public static final LatencyHistogram PRESS_TO_REFRESH = new LatencyHistogram("press read -> refresh");
+	
+	private static final LatencyHistogram[] ALL = {
+		WAKEUP, QUEUE, LISTENERS, PRESS_TO_GUI, PRESS_TO_REFRESH
+	};
+	
+	public static LatencyHistogram[] getHistograms() {
+		return ALL.clone();
+	}
+	
+	/**
+	 * @return one line per stage
+	 */
+	public static String getReport() {
+		StringBuilder sb = new StringBuilder();
+		for (LatencyHistogram h : ALL) {
+			sb.append(h).append('\n');
+		}
+		return sb.toString();
+	}
+	
+	public static void reset() {
+		for (LatencyHistogram h : ALL) h.reset();
+	}
+}
@@ -0,0 +1,201 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock free ring buffer for one producer thread and one consumer
+ * thread.  What happens when the producer finds the buffer full is set by
+ * the overflow policy, and the number of dropped elements is counted.
+ *
+ * The read position is advanced with a compare and set, so that the
+ * producer can drop the oldest element without a lock.  Waiting threads
+ * are parked and woken by the other side, nothing is allocated per element.
+ */
+public class RingBuffer<E> {
+
+	public enum OverflowPolicy {
+		/** Remove the oldest element to make room for the new one */
+		DROP_OLDEST,
+		/** Discard the new element */
+		DROP_NEWEST,
+		/** Wait until the consumer makes room; only use this if there is a consumer */
+		BLOCK
+	}
+
+	private final AtomicReferenceArray<E> myBuffer;
+	private final int myCapacity;
+	private final OverflowPolicy myPolicy;
+	private final AtomicLong myHead;		// next position to read
+	private final AtomicLong myTail;		// next position to write, only the producer changes it
+	private final AtomicLong myDroppedOldest;
+	private final AtomicLong myDroppedNewest;
+	private volatile Thread myWaitingConsumer;
+	private volatile Thread myWaitingProducer;
+
+	public RingBuffer(int capacity, OverflowPolicy policy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		myBuffer = new AtomicReferenceArray<E>(capacity);
+		myCapacity = capacity;
+		myPolicy = policy;
+		myHead = new AtomicLong(0);
+		myTail = new AtomicLong(0);
+		myDroppedOldest = new AtomicLong(0);
+		myDroppedNewest = new AtomicLong(0);
+	}
+
+	public int getCapacity() {
+		return myCapacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return myPolicy;
+	}
+
+	public long getDroppedOldestCount() {
+		return myDroppedOldest.get();
+	}
+
+	public long getDroppedNewestCount() {
+		return myDroppedNewest.get();
+	}
+
+	public int size() {
+		long size = myTail.get() - myHead.get();
+		return (int)Math.max(0, Math.min(size, myCapacity));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Adds an element; producer thread only.
+	 *
+	 * @return false if the element was dropped (DROP_NEWEST policy)
+	 * @throws InterruptedException if interrupted while blocked (BLOCK policy)
+	 */
+	public boolean put(E e) throws InterruptedException {
+		if (e == null) throw new NullPointerException();
+		long tail = myTail.get();
+		while (tail - myHead.get() >= myCapacity) {
+			if (myPolicy == OverflowPolicy.DROP_NEWEST) {
+				myDroppedNewest.incrementAndGet();
+				return false;
+			} else if (myPolicy == OverflowPolicy.DROP_OLDEST) {
+				long head = myHead.get();
+				if (tail - head >= myCapacity && myHead.compareAndSet(head, head+1)) {
+					myDroppedOldest.incrementAndGet();
+				}
+			} else {
+				myWaitingProducer = Thread.currentThread();
+				if (tail - myHead.get() >= myCapacity) {
+					LockSupport.park(this);
+				}
+				myWaitingProducer = null;
+				if (Thread.interrupted()) throw new InterruptedException();
+			}
+		}
+		myBuffer.lazySet((int)(tail % myCapacity), e);
+		myTail.set(tail+1);
+
+		Thread waiting = myWaitingConsumer;
+		if (waiting != null) LockSupport.unpark(waiting);
+		return true;
+	}
+
+	/**
+	 * Removes the oldest element, without waiting; consumer thread only.
+	 *
+	 * @return the element, or null if empty
+	 */
+	public E poll() {
+		while (true) {
+			long head = myHead.get();
+			if (head >= myTail.get()) return null;
+			E e = myBuffer.get((int)(head % myCapacity));
+			// Fails if the producer dropped this element in the meantime
+			if (myHead.compareAndSet(head, head+1)) {
+				Thread waiting = myWaitingProducer;
+				if (waiting != null) LockSupport.unpark(waiting);
+				return e;
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest element, waiting up to the timeout for one to arrive.
+	 *
+	 * @return the element, or null if the timeout expired
+	 */
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		E e = poll();
+		while (e == null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) return null;
+			myWaitingConsumer = Thread.currentThread();
+			if (isEmpty()) {
+				LockSupport.parkNanos(this, remaining);
+			}
+			myWaitingConsumer = null;
+			if (Thread.interrupted()) throw new InterruptedException();
+			e = poll();
+		}
+		return e;
+	}
+
+	/**
+	 * Removes the oldest element, waiting as long as it takes for one to arrive.
+	 */
+	public E take() throws InterruptedException {
+		E e = poll();
+		while (e == null) {
+			myWaitingConsumer = Thread.currentThread();
+			if (isEmpty()) {
+				LockSupport.park(this);
+			}
+			myWaitingConsumer = null;
+			if (Thread.interrupted()) throw new InterruptedException();
+			e = poll();
+		}
+		return e;
+	}
+
+	/**
+	 * Moves as many elements as fit into the array, oldest first; consumer thread only.
+	 *
+	 * @return the number of elements copied
+	 */
+	public int drainTo(E[] arr) {
+		return drainTo(arr, 0, arr.length);
+	}
+
+	public int drainTo(E[] arr, int offset, int max) {
+		int n = 0;
+		while (n < max) {
+			E e = poll();
+			if (e == null) break;
+			arr[offset + n++] = e;
+		}
+		return n;
+	}
+
+	/**
+	 * Removes all elements; consumer thread only.
+	 */
+	public void clear() {
+		while (poll() != null);
+	}
+}
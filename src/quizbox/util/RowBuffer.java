@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A line of text built up in a char array that is kept and reused, so 
+ * writing a row allocates nothing once the array is big enough.  Numbers 
+ * are written as digits straight into the array.  Not thread safe.
+ */
+public class RowBuffer {
+	private static final String LINE_SEP = System.getProperty("line.separator");
+	// Enough for any long, with a sign
+	private static final int MAX_LONG_CHARS = 20;
+	
+	private char[] myChars;
+	private int myLength;
+	
+	public RowBuffer(int capacity) {
+		myChars = new char[capacity];
+		myLength = 0;
+	}
+	
+	public int length() {
+		return myLength;
+	}
+	
+	public RowBuffer clear() {
+		myLength = 0;
+		return this;
+	}
+	
+	/**
+	 * Makes room for more chars, for callers that write into the array
+	 * themselves; follow with setLength()
+	 *
+	 * @return the array to write into, starting at length()
+	 */
+	public char[] reserve(int count) {
+		if (myLength + count > myChars.length) {
+			myChars = Arrays.copyOf(myChars, Math.max(myLength + count, myChars.length*2));
+		}
+		return myChars;
+	}
+	
+	public void setLength(int length) {
+		myLength = length;
+	}
+	
+	public RowBuffer append(char c) {
+		reserve(1)[myLength++] = c;
+		return this;
+	}
+	
+	public RowBuffer append(String s) {
+		int n = s.length();
+		s.getChars(0, n, reserve(n), myLength);
+		myLength += n;
+		return this;
+	}
+	
+	public RowBuffer append(long v) {
+		char[] buf = reserve(MAX_LONG_CHARS);
+		if (v < 0) buf[myLength++] = '-';
+		// Work with a negative number, so that Long.MIN_VALUE does not overflow
+		long n = (v > 0) ? -v : v;
+		int end = myLength + 1;
+		for (long t = n; t <= -10; t /= 10) end++;
+		int i = end;
+		do {
+			buf[--i] = (char)('0' - (n % 10));
+			n /= 10;
+		} while (n != 0);
+		myLength = end;
+		return this;
+	}
+	
+	/**
+	 * Writes a fixed point value with two decimals, 1234 is "12.34"
+	 */
+	public RowBuffer appendHundredths(long v) {
+		if (v < 0) {
+			append('-');
+			v = -v;
+		}
+		append(v / 100);
+		append('.');
+		int frac = (int)(v % 100);
+		append((char)('0' + frac / 10));
+		append((char)('0' + frac % 10));
+		return this;
+	}
+	
+	public RowBuffer newLine() {
+		return append(LINE_SEP);
+	}
+	
+	public void writeTo(Writer out) throws IOException {
+		out.write(myChars, 0, myLength);
+	}
+	
+	@Override
+	public String toString() {
+		return new String(myChars, 0, myLength);
+	}
+}
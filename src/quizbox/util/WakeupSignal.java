@@ -0,0 +1,96 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+/*
+ * Author: Ted Meyers, 2012
+ */
+
+package quizbox.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wakes up one waiting thread when something happens, such as data arriving
+ * on a connection.  A signal given while nobody is waiting is remembered, 
+ * so it can not be lost between checking for data and waiting.
+ *
+ * The waiter can spin for a short time before parking, which saves the 
+ * park/unpark delay when signals come close together, at the cost of CPU.
+ * With the spin time at zero it parks straight away.
+ */
+public class WakeupSignal {
+	private final AtomicBoolean myIsSignaled;
+	private volatile Thread myWaiter;
+	private volatile long mySpinNanos;
+	private volatile long mySignalTime;
+
+	public WakeupSignal() {
+		myIsSignaled = new AtomicBoolean(false);
+		myWaiter = null;
+		mySpinNanos = 0;
+	}
+
+	/**
+	 * @param time how long to spin before parking, zero to park straight away
+	 */
+	public void setSpinTime(long time, TimeUnit unit) {
+		mySpinNanos = unit.toNanos(time);
+	}
+
+	public long getSpinNanos() {
+		return mySpinNanos;
+	}
+
+	/**
+	 * Wakes up the waiting thread, or the next one to wait.  Any thread may call this.
+	 */
+	public void signal() {
+		if (!myIsSignaled.getAndSet(true)) mySignalTime = System.nanoTime();
+		Thread waiter = myWaiter;
+		if (waiter != null) LockSupport.unpark(waiter);
+	}
+
+	/**
+	 * @return the System.nanoTime() of the first signal since the waiter 
+	 *   last woke up, for measuring how long the wakeup took
+	 */
+	public long getSignalTime() {
+		return mySignalTime;
+	}
+
+	/**
+	 * Waits for a signal, only one thread may wait at a time.
+	 *
+	 * @param timeout the longest time to wait
+	 * @param unit
+	 * @return true if signaled, false if the timeout expired
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		if (myIsSignaled.getAndSet(false)) return true;
+
+		long start = System.nanoTime();
+		long spin = mySpinNanos;
+		if (spin > 0) {
+			while (System.nanoTime() - start < spin) {
+				if (myIsSignaled.get() && myIsSignaled.getAndSet(false)) return true;
+			}
+		}
+
+		long deadline = start + unit.toNanos(timeout);
+		myWaiter = Thread.currentThread();
+		try {
+			while (!myIsSignaled.getAndSet(false)) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) return false;
+				LockSupport.parkNanos(this, remaining);
+				if (Thread.interrupted()) throw new InterruptedException();
+			}
+			return true;
+		} finally {
+			myWaiter = null;
+		}
+	}
+}